@@ -210,11 +210,19 @@ public class Client extends UnicastRemoteObject implements IAuctionSubscriber {
     Float reservePrice = this.inputManager.getFloatFromClient(input);
 
     Float startingPrice = 0.0f;
+    Integer quantity = 1;
     if (!isDoubleAuction) {
       System.out.print(
           "\nSelect a starting price (EUR)."
           + "\nMake sure cent decimals (if any) are separated by a dot: ");
       startingPrice = this.inputManager.getFloatFromClient(input);
+    } else {
+      System.out.print("\nHow many identical items are you selling? ");
+      quantity = this.inputManager.getIntegerFromClient(input);
+      while (quantity < 1) {
+        System.out.print("Quantity must be at least 1. Try again: ");
+        quantity = this.inputManager.getIntegerFromClient(input);
+      }
     }
 
     try {
@@ -226,7 +234,7 @@ public class Client extends UnicastRemoteObject implements IAuctionSubscriber {
                            "\".\nCorresponding ID: " + listing.getItem().getItemId());
       } else {
         server.addSellerForDoubleAuction(this.userId, name, type, description, condition,
-                                        reservePrice, startingPrice);
+                                        reservePrice, startingPrice, quantity);
         System.out.println("\n[DOUBLE AUCTION SUCCESS] Created double auction listing for " + name);
       }
 
@@ -252,15 +260,27 @@ public class Client extends UnicastRemoteObject implements IAuctionSubscriber {
         }
         System.out.print("Wrong type. Try again: ");
       }
-      String listByType = server.retrieveItemsByType(type);
-      if (listByType == null) {
+      AuctionListingPage page = server.retrieveItemsByTypePage(type, null, ClientInputManager.PAGE_SIZE);
+      if (page == null || page.getEntries().isEmpty()) {
         System.out.println("No items of type " + type + ". Going back...");
         return;
       }
-      System.out.println("\n" + listByType);
-      System.out.print("Select item by ID: ");
+      System.out.println("\n" + ClientInputManager.printListingPage(type, page));
+      System.out.print("Select item by ID" + (page.hasNextPage() ? " (\"next\" for more items): " : ": "));
       while(true) {
-        idToView = this.inputManager.getIntegerFromClient(input);
+        String selection = this.inputManager.getStringFromClient(input);
+        if (selection.equals("next") && page.hasNextPage()) {
+          page = server.retrieveItemsByTypePage(type, page.getNextCursor(), ClientInputManager.PAGE_SIZE);
+          System.out.println("\n" + ClientInputManager.printListingPage(type, page));
+          System.out.print("Select item by ID" + (page.hasNextPage() ? " (\"next\" for more items): " : ": "));
+          continue;
+        }
+        try {
+          idToView = Integer.parseInt(selection);
+        } catch (NumberFormatException e) {
+          System.out.print(ClientInputManager.INPUT_ERROR);
+          continue;
+        }
         if(server.idMatchesExistingItem(idToView)) break;
         System.out.print("ID does not match an entry in the database, try anotherone: ");
       }
@@ -431,7 +451,13 @@ public class Client extends UnicastRemoteObject implements IAuctionSubscriber {
           "\nPlease, type the ammount of money (EUR) of your bid."
           + "\nNote - decimal cents (if any) must be separated by a dot: ");
       bid = this.inputManager.getFloatFromClient(input);
-      server.addBuyerForDoubleAuction(this.userId, type, bid);
+      System.out.print("\nHow many units do you want to buy? ");
+      Integer quantity = this.inputManager.getIntegerFromClient(input);
+      while (quantity < 1) {
+        System.out.print("Quantity must be at least 1. Try again: ");
+        quantity = this.inputManager.getIntegerFromClient(input);
+      }
+      server.addBuyerForDoubleAuction(this.userId, type, bid, quantity);
       System.out.println("[DOUBLE AUCTION INFO]: Bid placed succesfully.\n");
 
     } catch (Exception e) {
@@ -7,6 +7,7 @@ import java.util.Scanner;
  */
 public class ClientInputManager {
 
+  public static final Integer PAGE_SIZE = 10;
   public static final String INPUT_ERROR = "[INPUT ERROR]: Not a valid input type, please try again: ";
   public static final String MAIN_MENU_OPERATIONS = 
       "\n----- Available Operations -----"
@@ -67,6 +68,18 @@ public class ClientInputManager {
     return returnString;
   }
 
+  public static String printListingPage(String type, AuctionListingPage page) {
+    String barrier = "--- Available " + type.toUpperCase() + " ---\n";
+    StringBuilder list = new StringBuilder("-".repeat(barrier.length() - 1) + "\n" + barrier);
+    for (AuctionListingPage.Entry entry : page.getEntries()) {
+      list.append("ID: ").append(entry.getItemId()).append(" | ").append(entry.getItemTitle()).append("\n")
+          .append("Item condition: ").append(entry.getItemCondition()).append("\n")
+          .append("Current price: ").append(entry.getPrice()).append(" EUR\n\n");
+    }
+    list.append("-".repeat(barrier.length() - 1)).append("\n");
+    return list.toString();
+  }
+
   public String getStringFromClient(Scanner input) {
     String result = null;
     while (true) {
@@ -0,0 +1,71 @@
+import java.lang.ref.Reference;
+import java.util.ArrayList;
+import java.util.function.Supplier;
+
+/*
+ * Heap footprint benchmark: AuctionListing (wire DTO) vs CompactListing
+ * (backend internal form).
+ *
+ * Usage (after ./compile.sh):
+ *   ./bench.sh ListingFootprintBenchmark [listings]
+ */
+public class ListingFootprintBenchmark {
+
+  private static final AuctionItemTypeEnum[] TYPES = AuctionItemTypeEnum.values();
+
+  public static void main(String[] args) {
+    int listings = (args.length > 0) ? Integer.parseInt(args[0]) : 200_000;
+    System.out.printf("📊 Retaining %d listings of each representation\n", listings);
+
+    // Shared strings so both layouts only pay for their own fields
+    String title = "Benchmark item";
+    String description = "Benchmark item description";
+
+    long dtoBytes = measure(() -> {
+      ArrayList<Object> retained = new ArrayList<Object>(listings);
+      for (int i = 0; i < listings; i++) {
+        AuctionItem item = new AuctionItem(i, title, TYPES[i % TYPES.length].getValue(), description, 1 + (i % 5));
+        AuctionListing listing = new AuctionListing(item, 10.0f + i, 20.0f + i);
+        listing.setCurrentPrice(15.0f + i);
+        listing.setBestBidUser("user" + (i % 1000));
+        retained.add(listing);
+      }
+      return retained;
+    });
+
+    long compactBytes = measure(() -> {
+      ArrayList<Object> retained = new ArrayList<Object>(listings);
+      for (int i = 0; i < listings; i++) {
+        CompactListing listing = new CompactListing(i, TYPES[i % TYPES.length], 1 + (i % 5),
+                                                    title, description, 1000L + i * 100L, 2000L + i * 100L);
+        listing.acceptBid(i % 1000, 1500L + i * 100L);
+        retained.add(listing);
+      }
+      return retained;
+    });
+
+    System.out.printf("+ AuctionListing: %,d bytes total, %.1f bytes/listing\n", dtoBytes, (double) dtoBytes / listings);
+    System.out.printf("+ CompactListing: %,d bytes total, %.1f bytes/listing\n", compactBytes, (double) compactBytes / listings);
+    System.out.printf("+ Reduction: %.1f%%\n", 100.0 * (dtoBytes - compactBytes) / dtoBytes);
+  }
+
+  /*
+   * Retained heap of whatever the allocator returns (best effort, via GC)
+   */
+  private static long measure(Supplier<Object> allocator) {
+    long before = usedHeap();
+    Object retained = allocator.get();
+    long after = usedHeap();
+    Reference.reachabilityFence(retained);
+    return after - before;
+  }
+
+  private static long usedHeap() {
+    Runtime runtime = Runtime.getRuntime();
+    for (int i = 0; i < 5; i++) {
+      System.gc();
+      try { Thread.sleep(50); } catch (InterruptedException e) { Thread.currentThread().interrupt(); }
+    }
+    return runtime.totalMemory() - runtime.freeMemory();
+  }
+}
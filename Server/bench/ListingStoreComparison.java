@@ -0,0 +1,108 @@
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Objects;
+import java.util.Random;
+
+/*
+ * Randomized comparison of MappedListingStore against HeapListingStore:
+ * the same put/overwrite/get/update/remove mix on both, checking every
+ * answer and, now and then, the whole contents. Also reports how far the
+ * mapped store's string region grew, which compaction keeps bounded.
+ *
+ * Usage (after ./compile.sh):
+ *   ./bench.sh ListingStoreComparison [operations] [seed]
+ */
+public class ListingStoreComparison {
+
+  private static final AuctionItemTypeEnum[] TYPES = AuctionItemTypeEnum.values();
+  private static final int ID_RANGE = 20_000;
+
+  public static void main(String[] args) throws Exception {
+    int operations = (args.length > 0) ? Integer.parseInt(args[0]) : 1_000_000;
+    long seed = (args.length > 1) ? Long.parseLong(args[1]) : 42L;
+    Random random = new Random(seed);
+    HeapListingStore heap = new HeapListingStore();
+    MappedListingStore mapped = new MappedListingStore(Files.createTempDirectory("listing-store").toString());
+    System.out.printf("📊 %d random operations over %d ids (seed %d)\n", operations, ID_RANGE, seed);
+
+    int mismatches = 0;
+    long maxStringBytes = 0;
+    for (int i = 0; i < operations; i++) {
+      int itemId = random.nextInt(ID_RANGE);
+      int op = random.nextInt(10);
+      if (op < 4) {
+        CompactListing listing = randomListing(random, itemId);
+        heap.put(listing);
+        mapped.put(listing.copy());
+      } else if (op < 6) {
+        if (!same(heap.get(itemId), mapped.get(itemId)) || heap.contains(itemId) != mapped.contains(itemId)) mismatches++;
+      } else if (op < 8) {
+        CompactListing a = heap.get(itemId), b = mapped.get(itemId);
+        if (a == null || b == null) {
+          if (a != b) mismatches++;
+          continue;
+        }
+        long bid = a.getCurrentCents() + 1 + random.nextInt(1000);
+        int bidder = random.nextInt(1000);
+        for (CompactListing listing : new CompactListing[] { a, b }) {
+          listing.acceptBid(bidder, bid);
+          listing.logBid("user" + bidder, bid, true);
+        }
+        heap.update(a);
+        mapped.update(b);
+      } else {
+        if (!same(heap.remove(itemId), mapped.remove(itemId))) mismatches++;
+      }
+      if (heap.size() != mapped.size()) mismatches++;
+      maxStringBytes = Math.max(maxStringBytes, mapped.stringRegionBytes());
+      if (i % 100_000 == 0) mismatches += compareAll(heap, mapped);
+    }
+    mismatches += compareAll(heap, mapped);
+
+    long liveBytes = 0;
+    ArrayList<CompactListing> live = new ArrayList<CompactListing>();
+    heap.forEach(live::add);
+    for (CompactListing listing : live) { liveBytes += stringBytes(listing.getTitle()) + stringBytes(listing.getDescription()); }
+    System.out.printf("+ Listings left: %d | mismatches: %d\n", heap.size(), mismatches);
+    System.out.printf("+ String region: %,d bytes now, %,d at most, %,d live\n",
+                      mapped.stringRegionBytes(), maxStringBytes, liveBytes);
+    if (mismatches > 0) System.exit(1);
+  }
+
+  private static CompactListing randomListing(Random random, int itemId) {
+    StringBuilder description = new StringBuilder("Description of item " + itemId);
+    for (int words = random.nextInt(20); words > 0; words--) { description.append(" lorem"); }
+    return new CompactListing(itemId, TYPES[random.nextInt(TYPES.length)], 1 + random.nextInt(5),
+                              "Item " + itemId + " v" + random.nextInt(1000),
+                              random.nextInt(10) == 0 ? null : description.toString(),
+                              100L * random.nextInt(1000), 100L * random.nextInt(2000));
+  }
+
+  private static long stringBytes(String value) {
+    return (value == null) ? 0 : Integer.BYTES + value.getBytes(java.nio.charset.StandardCharsets.UTF_8).length;
+  }
+
+  private static int compareAll(HeapListingStore heap, MappedListingStore mapped) {
+    HashMap<Integer, CompactListing> expected = new HashMap<Integer, CompactListing>();
+    heap.forEach(listing -> expected.put(listing.getItemId(), listing));
+    int[] mismatches = { 0 };
+    int[] seen = { 0 };
+    mapped.forEach(listing -> {
+      seen[0]++;
+      if (!same(expected.get(listing.getItemId()), listing)) mismatches[0]++;
+    });
+    return mismatches[0] + Math.abs(seen[0] - expected.size());
+  }
+
+  private static boolean same(CompactListing a, CompactListing b) {
+    if (a == null || b == null) return a == b;
+    return a.getItemId() == b.getItemId() && a.getItemType() == b.getItemType()
+        && a.getCondition() == b.getCondition() && Objects.equals(a.getTitle(), b.getTitle())
+        && Objects.equals(a.getDescription(), b.getDescription())
+        && a.getStartingCents() == b.getStartingCents() && a.getReserveCents() == b.getReserveCents()
+        && a.getCurrentCents() == b.getCurrentCents() && a.getBestBidderId() == b.getBestBidderId()
+        && Objects.equals(a.getBidLog() == null ? null : a.getBidLog().render(),
+                          b.getBidLog() == null ? null : b.getBidLog().render());
+  }
+}
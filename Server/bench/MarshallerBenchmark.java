@@ -0,0 +1,124 @@
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.UUID;
+
+import org.jgroups.blocks.MethodCall;
+import org.jgroups.blocks.RpcDispatcher;
+import org.jgroups.util.Buffer;
+import org.jgroups.util.Util;
+
+/*
+ * Marshalling benchmark: the default RpcDispatcher encoding (Java
+ * serialization through Util.objectToByteBuffer) vs CompactMarshaller,
+ * for typical requests and responses between frontends and backends.
+ * Reports the encoded size and the time to encode and to decode.
+ *
+ * Usage (after ./compile.sh):
+ *   ./bench.sh MarshallerBenchmark [iterations]
+ */
+public class MarshallerBenchmark {
+
+  private static final Class<?>[] BID_TYPES = { Integer.class, Integer.class, Float.class };
+  private static final Class<?>[] OPEN_TYPES = { Integer.class, Integer.class, String.class, String.class,
+                                                 String.class, Integer.class, Float.class, Float.class };
+
+  public static void main(String[] args) throws Exception {
+    int iterations = (args.length > 0) ? Integer.parseInt(args[0]) : 100_000;
+    RpcDispatcher dispatcher = new RpcDispatcher();
+    CompactMarshaller.install(dispatcher);
+    RpcDispatcher.Marshaller compact = dispatcher.getRequestMarshaller();
+    System.out.printf("📊 %d encode/decode rounds per message\n", iterations);
+    System.out.printf("%-22s %12s %12s %14s %14s %14s %14s\n", "", "java bytes", "compact", "java enc ns",
+                      "compact enc", "java dec ns", "compact dec");
+
+    ArrayList<BidRequest> bids = new ArrayList<BidRequest>();
+    for (int i = 0; i < 128; i++) { bids.add(new BidRequest(i % 10, i, 10.0f + i)); }
+
+    AuctionListing listing = new AuctionListing(
+        new AuctionItem(42, "Benchmark item", "book", "Benchmark item description", 2), 10.0f, 20.0f);
+    for (int i = 0; i < 40; i++) { listing.logBid("user" + (i % 7), 10.0f + i, true); }
+    listing.setCurrentPrice(49.0f);
+    listing.setBestBidUser("user5");
+
+    ArrayList<AuctionListingPage.Entry> entries = new ArrayList<AuctionListingPage.Entry>();
+    for (int i = 0; i < 20; i++) { entries.add(new AuctionListingPage.Entry(i, "Benchmark item " + i, "Used.", 10.0f + i)); }
+
+    // Double auction results as text per user (before MatchEvent) and as events
+    HashMap<Integer, HashMap<Integer, String>> matches = new HashMap<Integer, HashMap<Integer, String>>();
+    ArrayList<MatchEvent> events = new ArrayList<MatchEvent>();
+    for (int i = 0; i < 4; i++) {
+      HashMap<Integer, String> notification = new HashMap<Integer, String>();
+      notification.put(i, "> Your double auction item was sold: Benchmark item (book) || ID: " + i);
+      matches.put(i, notification);
+      events.add(new MatchEvent(i, i + 4, i, 20.0f, 25.0f, 1, 0, 0, "Benchmark item", "book"));
+    }
+
+    compare("placeBid request", new MethodCall("placeBidBackend", new Object[] { 1, 42, 10.5f }, BID_TYPES),
+            compact, iterations);
+    compare("openAuction request", new MethodCall("openAuctionBackend",
+            new Object[] { 42, 1, "Benchmark item", "book", "Benchmark item description", 2, 20.0f, 10.0f }, OPEN_TYPES),
+            compact, iterations);
+    compare("placeBids request (128)", new MethodCall("placeBidsBackend", new Object[] { bids },
+            new Class[] { ArrayList.class }), compact, iterations / 10);
+    // MAJORITY writes, as they actually go out (see GroupUtils.majorityBackendCall)
+    compare("digested placeBid", digested("placeBidBackend", new Object[] { 1, 42, 10.5f }, BID_TYPES),
+            compact, iterations);
+    compare("digested placeBids (128)", digested("placeBidsBackend", new Object[] { bids },
+            new Class[] { ArrayList.class }), compact, iterations / 10);
+    compare("Boolean response", Boolean.TRUE, compact, iterations);
+    compare("AuctionListing", listing, compact, iterations / 10);
+    compare("AuctionListingPage (20)", new AuctionListingPage(entries, "29:19"), compact, iterations / 10);
+    compare("double auction (text)", matches, compact, iterations / 10);
+    compare("double auction (events)", events, compact, iterations / 10);
+    compare("ReplicaAnswer (digest)", ReplicaAnswer.of(Util.objectToByteBuffer(listing), false), compact, iterations);
+    // Answers to the digested calls above, from the designated replica
+    ArrayList<Boolean> accepted = new ArrayList<Boolean>();
+    for (int i = 0; i < bids.size(); i++) { accepted.add(i % 3 != 0); }
+    compare("placeBid answer", ReplicaAnswer.of(ReplicaAnswer.serialize(Boolean.TRUE), true), compact, iterations);
+    compare("placeBids answer (128)", ReplicaAnswer.of(ReplicaAnswer.serialize(accepted), true), compact,
+            iterations / 10);
+  }
+
+  /*
+   * A backend call wrapped the way every MAJORITY call is sent
+   */
+  private static MethodCall digested(String method, Object[] params, Class<?>[] types) {
+    return new MethodCall("digestedCallBackend",
+      new Object[] { UUID.randomUUID().toString(), UUID.randomUUID().toString(), method, params, types },
+      new Class[] { String.class, String.class, String.class, Object[].class, Class[].class });
+  }
+
+  private static void compare(String name, Object message, RpcDispatcher.Marshaller compact, int iterations)
+      throws Exception {
+    byte[] java = Util.objectToByteBuffer(message);
+    Buffer compactBuffer = compact.objectToBuffer(message);
+
+    // Warm up both paths before timing them
+    for (int i = 0; i < Math.max(1000, iterations / 10); i++) {
+      Util.objectFromByteBuffer(Util.objectToByteBuffer(message));
+      Buffer buffer = compact.objectToBuffer(message);
+      compact.objectFromBuffer(buffer.getBuf(), buffer.getOffset(), buffer.getLength());
+    }
+
+    long start = System.nanoTime();
+    for (int i = 0; i < iterations; i++) { Util.objectToByteBuffer(message); }
+    double javaEncode = (System.nanoTime() - start) / (double) iterations;
+
+    start = System.nanoTime();
+    for (int i = 0; i < iterations; i++) { compact.objectToBuffer(message); }
+    double compactEncode = (System.nanoTime() - start) / (double) iterations;
+
+    start = System.nanoTime();
+    for (int i = 0; i < iterations; i++) { Util.objectFromByteBuffer(java); }
+    double javaDecode = (System.nanoTime() - start) / (double) iterations;
+
+    start = System.nanoTime();
+    for (int i = 0; i < iterations; i++) {
+      compact.objectFromBuffer(compactBuffer.getBuf(), compactBuffer.getOffset(), compactBuffer.getLength());
+    }
+    double compactDecode = (System.nanoTime() - start) / (double) iterations;
+
+    System.out.printf("%-22s %12d %12d %14.0f %14.0f %14.0f %14.0f\n", name, java.length, compactBuffer.getLength(),
+                      javaEncode, compactEncode, javaDecode, compactDecode);
+  }
+}
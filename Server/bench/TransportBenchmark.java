@@ -0,0 +1,119 @@
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import org.jgroups.JChannel;
+import org.jgroups.blocks.RpcDispatcher;
+
+/*
+ * Transport benchmark: placeBidBackend round-trip latency and pipelined
+ * throughput under each JGroups stack preset (see GroupUtils.stackConfig()).
+ *
+ * Every preset runs in its own JVM (JGROUPS_STACK is read from the
+ * environment), with the backend replicas and one frontend channel in
+ * that JVM, on a group of its own.
+ *
+ * Usage (after ./compile.sh):
+ *   ./bench.sh TransportBenchmark [presets] [calls] [backends]
+ *   e.g. ./bench.sh TransportBenchmark udp,tcp,shared_loopback 5000 3
+ */
+public class TransportBenchmark {
+
+  private static final int TIMEOUT = 5000;
+  private static final Class<?>[] BID_TYPES = { Integer.class, Integer.class, Float.class };
+
+  public static void main(String[] args) throws Exception {
+    if (args.length > 0 && args[0].equals("--run")) {
+      run(Integer.parseInt(args[1]), Integer.parseInt(args[2]));
+      return;
+    }
+    List<String> presets = Arrays.asList(((args.length > 0) ? args[0] : "udp,tcp,shared_loopback").split(","));
+    String calls = (args.length > 1) ? args[1] : "5000";
+    String backends = (args.length > 2) ? args[2] : "3";
+    System.out.printf("📊 %s placeBidBackend calls against %s backend replicas, per stack preset\n", calls, backends);
+
+    String java = ProcessHandle.current().info().command().orElse("java");
+    for (String preset : presets) {
+      ProcessBuilder child = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+                                                "-Djava.net.preferIPv4Stack=true",
+                                                "-Djgroups.bind_addr=127.0.0.1",
+                                                TransportBenchmark.class.getName(), "--run", calls, backends);
+      child.environment().put("JGROUPS_STACK", preset);
+      child.environment().put("GROUP", "TRANSPORT_BENCHMARK_" + preset + "_" + ProcessHandle.current().pid());
+      child.environment().remove("WAL_DIR");
+      child.redirectErrorStream(true).redirectOutput(ProcessBuilder.Redirect.INHERIT);
+      System.out.printf("\n[%s] %s\n", preset, GroupUtils.stackConfig(preset));
+      int exit = child.start().waitFor();
+      if (exit != 0) System.out.printf("🆘 [%s] benchmark run failed (exit code %d)\n", preset, exit);
+    }
+  }
+
+  /*
+   * One preset: sequential calls for latency, then every call in flight
+   * at once (up to MAX_IN_FLIGHT) for throughput
+   */
+  private static void run(int calls, int backendCount) throws Exception {
+    // Request logs would dominate the measurement
+    PrintStream report = System.out;
+    System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+
+    ArrayList<AuctionServerBackend> backends = new ArrayList<AuctionServerBackend>();
+    for (int i = 0; i < backendCount; i++) { backends.add(new AuctionServerBackend()); }
+    JChannel channel = GroupUtils.connect(GroupUtils.FRONTEND_ROLE);
+    if (channel == null) System.exit(1);
+    RpcDispatcher dispatcher = new RpcDispatcher(channel, new Object());
+    CompactMarshaller.install(dispatcher);
+    while (GroupUtils.backendMembers(dispatcher).size() < backendCount) { Thread.sleep(50); }
+
+    GroupUtils.executeBackendReplicaCall("[BENCH]", "addUserBackend", Integer.valueOf(0),
+        new Object[] { 1, "bench", CryptoManager.generateRSAKeys().getPublic().getEncoded() },
+        new Class[] { Integer.class, String.class, byte[].class }, dispatcher, TIMEOUT, ConsistencyMode.MAJORITY);
+    GroupUtils.executeBackendReplicaCall("[BENCH]", "openAuctionBackend", new AuctionListing(),
+        new Object[] { 1, 1, "Benchmark item", AuctionItemTypeEnum.values()[0].getValue(), "Benchmark item", 1, 1.0f, 1.0f },
+        new Class[] { Integer.class, Integer.class, String.class, String.class, String.class,
+                      Integer.class, Float.class, Float.class },
+        dispatcher, TIMEOUT, ConsistencyMode.MAJORITY);
+
+    // Ever higher bids, so every one of them is accepted and logged
+    float bid = 2.0f;
+    for (int i = 0; i < Math.min(calls, 1000); i++) { placeBid(dispatcher, bid++); }
+
+    long[] latencies = new long[calls];
+    int failed = 0;
+    for (int i = 0; i < calls; i++) {
+      long start = System.nanoTime();
+      if (!Boolean.TRUE.equals(placeBid(dispatcher, bid++))) failed++;
+      latencies[i] = System.nanoTime() - start;
+    }
+    Arrays.sort(latencies);
+
+    long start = System.nanoTime();
+    ArrayList<CompletableFuture<Boolean>> pipelined = new ArrayList<CompletableFuture<Boolean>>(calls);
+    for (int i = 0; i < calls; i++) {
+      pipelined.add(GroupUtils.executeBackendReplicaCallAsync("[BENCH]", "placeBidBackend", Boolean.TRUE,
+          new Object[] { 1, 1, bid++ }, BID_TYPES, dispatcher, TIMEOUT, ConsistencyMode.MAJORITY));
+    }
+    for (CompletableFuture<Boolean> call : pipelined) {
+      if (!Boolean.TRUE.equals(call.exceptionally(e -> null).join())) failed++;
+    }
+    double seconds = (System.nanoTime() - start) / 1e9;
+
+    report.printf("+ Latency: p50 %.3f ms | p99 %.3f ms | max %.3f ms\n",
+                  percentile(latencies, 0.50), percentile(latencies, 0.99), latencies[calls - 1] / 1e6);
+    report.printf("+ Throughput: %,.0f calls/s (%d calls in %.2f s)\n", calls / seconds, calls, seconds);
+    report.printf("+ Failed calls: %d\n", failed);
+    System.exit(0);
+  }
+
+  private static Boolean placeBid(RpcDispatcher dispatcher, float bid) {
+    return GroupUtils.executeBackendReplicaCall("[BENCH]", "placeBidBackend", Boolean.TRUE,
+        new Object[] { 1, 1, bid }, BID_TYPES, dispatcher, TIMEOUT, ConsistencyMode.MAJORITY);
+  }
+
+  private static double percentile(long[] sorted, double p) {
+    return sorted[Math.min(sorted.length - 1, (int) (p * sorted.length))] / 1e6;
+  }
+}
@@ -19,5 +19,26 @@ public enum AuctionItemTypeEnum {
     this.typeStr = typeStr;
   }
   public String getValue() { return this.typeStr; }
+
+  private static final AuctionItemTypeEnum[] BY_ORDINAL = values();
+
+  /*
+   * Case insensitive match against the display names
+   * @return the matching type or null if none matches
+   */
+  public static AuctionItemTypeEnum fromString(String typeStr) {
+    if (typeStr == null) return null;
+    for (AuctionItemTypeEnum type : BY_ORDINAL) {
+      if (type.typeStr.equalsIgnoreCase(typeStr)) return type;
+    }
+    return null;
+  }
+
+  public static AuctionItemTypeEnum fromOrdinal(int ordinal) { return BY_ORDINAL[ordinal]; }
+
+  /*
+   * Key used for per-category backend maps
+   */
+  public String getKey() { return this.typeStr.toLowerCase(); }
 }
 
@@ -3,14 +3,36 @@ import java.rmi.RemoteException;
 import java.rmi.registry.Registry;
 
 // Data structs
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Supplier;
 
+import org.jgroups.Address;
 import org.jgroups.JChannel;
+import org.jgroups.blocks.MethodCall;
 import org.jgroups.blocks.RequestOptions;
 import org.jgroups.blocks.ResponseMode;
 import org.jgroups.blocks.RpcDispatcher;
+import org.jgroups.util.Rsp;
 import org.jgroups.util.RspList;
 
 import java.security.KeyFactory;
@@ -19,56 +41,384 @@ import java.security.spec.X509EncodedKeySpec;
 
 public class AuctionServerBackend {
 
-  private HashMap<String, HashMap<Integer, AuctionListing>> auctionList = null;
-  private HashMap<String, DoubleAuction> doubleAuctionList = null;
-  private HashMap<Integer, AuctionUser> userList = null;
+  private final ListingStore listingStore = ListingStore.fromEnvironment();
+  private volatile ConcurrentHashMap<String, ConcurrentSkipListSet<ListingSortKey>> priceIndex = null;
+  private volatile ConcurrentHashMap<String, DoubleAuction> doubleAuctionList = null;
+  private volatile ConcurrentHashMap<Integer, AuctionUser> userList = null;
 
-  private int requestCount;
-  private static Integer globalId = null;
+  private final AtomicInteger requestCount = new AtomicInteger(0);
+  private final AtomicInteger globalId = new AtomicInteger(0);
+  // Per kind of id, the first id not leased to a frontend yet
+  private final ConcurrentHashMap<String, Long> idLeases = new ConcurrentHashMap<String, Long>();
+  private final Object idLeaseLock = new Object();
+  private final CategoryRenderCache renderCache = new CategoryRenderCache();
   private final int DISPATCHER_TIMEOUT = 1000;
 
+  // Work-stealing pool clearing call markets of different item types in parallel
+  private final int CLEARING_PARALLELISM = System.getenv("CLEARING_PARALLELISM") == null
+      ? Runtime.getRuntime().availableProcessors() : Integer.parseInt(System.getenv("CLEARING_PARALLELISM"));
+  private final ForkJoinPool clearingPool = new ForkJoinPool(CLEARING_PARALLELISM);
+  private static final int MAX_PAGE_SIZE = 50;
+
+  // Striped locks guarding per-listing bid/close state
+  private static final int LISTING_LOCK_STRIPES = 64;
+  private final Object[] listingLocks = newLockStripes(LISTING_LOCK_STRIPES);
+
+  // Write-ahead log; state-changing requests hold the read side of
+  // stateLock, snapshots take the write side for a consistent cut
+  private final BackendJournal journal = BackendJournal.fromEnvironment();
+  private final ReentrantReadWriteLock stateLock = new ReentrantReadWriteLock();
+  private final int SNAPSHOT_INTERVAL_SECONDS = System.getenv("SNAPSHOT_INTERVAL_SECONDS") == null
+      ? 60 : Integer.parseInt(System.getenv("SNAPSHOT_INTERVAL_SECONDS"));
+
+  // State transfer: per frontend, the last request applied (see
+  // BackendDispatcher); requests wait for stateReady while joining or repairing
+  private final ConcurrentHashMap<String, Long> appliedOrigins = new ConcurrentHashMap<String, Long>();
+  private final ConcurrentHashMap<String, Long> waitingOrigins = new ConcurrentHashMap<String, Long>();
+  // Set when the current thread's request was already in transferred state,
+  // so its null result is not this replica's answer (see digestedCallBackend)
+  private final ThreadLocal<Boolean> answeredByTransfer = new ThreadLocal<Boolean>();
+  private volatile CountDownLatch stateReady = new CountDownLatch(1);
+  private final AtomicBoolean repairing = new AtomicBoolean(false);
+  private final ConcurrentHashMap<String, StateTransferSession> transferSessions =
+      new ConcurrentHashMap<String, StateTransferSession>();
+  private final int STATE_TRANSFER_TIMEOUT = 10000;
+  private final long STATE_TRANSFER_SESSION_EXPIRY = 300000;
+  private final int STATE_CHUNK_SIZE = System.getenv("STATE_CHUNK_SIZE") == null
+      ? 1000 : Integer.parseInt(System.getenv("STATE_CHUNK_SIZE"));
+
+  // Recent operations, for replicas catching up after a short absence
+  private final OperationHistory history = new OperationHistory(System.getenv("OPERATION_HISTORY_SIZE") == null
+      ? 10000 : Integer.parseInt(System.getenv("OPERATION_HISTORY_SIZE")));
+
+  // Serialized results of recent digested requests, by request id, in
+  // case a frontend needs the full result from this replica
+  private final int RECENT_ANSWERS = 1024;
+  private final Map<String, byte[]> recentAnswers = new LinkedHashMap<String, byte[]>() {
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<String, byte[]> eldest) { return size() > RECENT_ANSWERS; }
+  };
+
   private JChannel groupChannel;
   private RpcDispatcher dispatcher;
 
+  // Shard this replica belongs to (see ShardRing), out of GroupUtils.SHARD_COUNT
+  private final int shard;
+
   public AuctionServerBackend() {
+    this(System.getenv("SHARD") == null ? 0 : Integer.parseInt(System.getenv("SHARD")));
+  }
 
-    this.groupChannel = GroupUtils.connect();
+  /**
+   * Backend replica of one shard
+   *
+   * Only joins that shard's group, so it only holds (and only applies
+   * writes for) the item types ShardRing maps to the shard. Users are
+   * added to every shard by the frontends.
+   */
+  public AuctionServerBackend(int shard) {
+    this.shard = shard;
+
+    this.priceIndex = new ConcurrentHashMap<String, ConcurrentSkipListSet<ListingSortKey>>();
+    this.doubleAuctionList = new ConcurrentHashMap<String, DoubleAuction>();
+    this.userList = new ConcurrentHashMap<Integer, AuctionUser>();
+    recoverLocalState();
+
+    this.groupChannel = GroupUtils.connect(GroupUtils.BACKEND_ROLE, GroupUtils.shardGroup(this.shard));
     if (this.groupChannel == null) { System.exit(1); }
-    this.dispatcher = new RpcDispatcher(this.groupChannel, this);
+    this.dispatcher = new BackendDispatcher(this.groupChannel, this, this.journal::awaitDurable);
 
-    this.auctionList = new HashMap<String, HashMap<Integer, AuctionListing>>();
-    this.doubleAuctionList = new HashMap<String, DoubleAuction>();
-    this.userList = new HashMap<Integer, AuctionUser>();
-    this.requestCount = 0;
     try {
       syncBackendState();
     } catch (Exception e) {
+      System.err.println("🆘 Backend replica could not get the state from other replicas:");
       e.printStackTrace();
+      System.exit(1);
     }
+    this.stateReady.countDown();
+    startSnapshots();
   }
 
   /**
    * Adds item to server's global list
    * @return Global ID
    */
-  private Integer assignItemId() { return globalId++; }
+  private Integer assignItemId() {
+    return (int) shardItemId(this.globalId.getAndUpdate(next -> (int) shardItemId(next) + 1));
+  }
+
+  /*
+   * First item id of this shard at or above "from": item ids are dealt out
+   * over the shards round-robin (see ShardRing.shardForItem)
+   */
+  private long shardItemId(long from) {
+    return from + Math.floorMod(this.shard - from, idStride(IdBlockAllocator.ITEM_IDS));
+  }
+
+  private static int idStride(String kind) {
+    return IdBlockAllocator.ITEM_IDS.equals(kind) ? Math.max(1, GroupUtils.SHARD_COUNT) : 1;
+  }
+
+  /*
+   * Item id to use when applying an operation: the one the frontend took
+   * from its leased block (also the one recorded in the WAL), or a fresh
+   * one past every leased block for requests that come without one
+   */
+  private Integer itemIdFor(BackendOperation op, boolean replay) {
+    if (op.getItemId() < 0) {
+      long leased = this.idLeases.getOrDefault(IdBlockAllocator.ITEM_IDS, 0L);
+      this.globalId.accumulateAndGet((int) Math.min(leased, Integer.MAX_VALUE), Math::max);
+      op.setItemId(assignItemId());
+    }
+    this.globalId.accumulateAndGet(op.getItemId() + 1, Math::max);
+    return op.getItemId();
+  }
+
+  private static Object[] newLockStripes(int stripes) {
+    Object[] locks = new Object[stripes];
+    for (int i = 0; i < stripes; i++) { locks[i] = new Object(); }
+    return locks;
+  }
+
+  /*
+   * Lock stripe for a listing id. Bids on listings hashing to
+   * different stripes proceed in parallel.
+   */
+  private Object lockFor(Integer listingId) {
+    return this.listingLocks[stripeFor(listingId)];
+  }
+
+  private int stripeFor(Integer listingId) {
+    return Math.floorMod(listingId.hashCode(), LISTING_LOCK_STRIPES);
+  }
 
   /*
    * Adds aucitoned item listing to server's global list
    */
-  private AuctionListing addListing(AuctionListing listing) {
-    String itemType = listing.getItem().getItemType().toLowerCase();
-    this.auctionList
-        .computeIfAbsent(itemType, k -> new HashMap<Integer, AuctionListing>())
-        .put(listing.getItem().getItemId(), listing);
+  private CompactListing addListing(CompactListing listing) {
+    String itemType = listing.getItemType().getKey();
+    synchronized (lockFor(listing.getItemId())) {
+      this.listingStore.put(listing);
+      priceIndexFor(itemType).add(ListingSortKey.of(listing));
+    }
+    this.renderCache.invalidate(itemType);
     return listing;
   }
 
+  /*
+   * Removes auctioned item listing from the store and the price index
+   * (only if it belongs to the given item type)
+   */
+  private CompactListing removeListing(String itemType, Integer listingId) {
+    synchronized (lockFor(listingId)) {
+      CompactListing listing = this.listingStore.get(listingId);
+      if (listing == null || !listing.getItemType().getKey().equals(itemType)) return null;
+      this.listingStore.remove(listingId);
+      priceIndexFor(itemType).remove(ListingSortKey.of(listing));
+      this.renderCache.invalidate(itemType);
+      return listing;
+    }
+  }
 
-  public Boolean proposedIdExistsBackend(Integer proposedId) {
-    this.requestCount++;
-    System.out.printf("📩 Frontend request for proposedIdExists() | total requests: %d\n", this.requestCount);
-    return this.userList.containsKey(proposedId);
+  /*
+   * Constant time lookup of a listing by id, regardless of its item type
+   */
+  private CompactListing findListing(Integer listingId) {
+    return this.listingStore.get(listingId);
+  }
+
+  /*
+   * Price-ordered index of a category (created on first use)
+   */
+  private ConcurrentSkipListSet<ListingSortKey> priceIndexFor(String itemType) {
+    return this.priceIndex.computeIfAbsent(itemType, k -> new ConcurrentSkipListSet<ListingSortKey>());
+  }
+
+  /*
+   * Wire DTO for an internal listing
+   */
+  private AuctionListing toWireListing(CompactListing listing) {
+    return listing.toAuctionListing(id -> {
+      AuctionUser user = this.userList.get(id);
+      return (user == null) ? null : user.getUserName();
+    });
+  }
+
+  /*
+   * Rebuilds the price index from the listing store (after a state sync)
+   */
+  private void rebuildListingIndex() {
+    ConcurrentHashMap<String, ConcurrentSkipListSet<ListingSortKey>> rebuilt =
+        new ConcurrentHashMap<String, ConcurrentSkipListSet<ListingSortKey>>();
+    this.listingStore.forEach(listing ->
+        rebuilt.computeIfAbsent(listing.getItemType().getKey(), k -> new ConcurrentSkipListSet<ListingSortKey>())
+               .add(ListingSortKey.of(listing)));
+    this.priceIndex = rebuilt;
+    this.renderCache.invalidateAll();
+  }
+
+  /*
+   * Applies a state-changing request and has its reply wait until it is
+   * in the WAL (the fsync is shared with the requests applied meanwhile,
+   * see BackendJournal and BackendDispatcher)
+   */
+  private Object execute(BackendOperation op) {
+    BackendDispatcher.tagOrigin(op);
+    Object result;
+    while (true) {
+      awaitState(op);
+      this.stateLock.readLock().lock();
+      try {
+        // A repair started after awaitState(): go back and wait for it
+        if (!isServing()) continue;
+        // Already part of the state transferred to this replica
+        if (isApplied(op)) {
+          this.answeredByTransfer.set(Boolean.TRUE);
+          return null;
+        }
+        result = applyOperation(op, false);
+        break;
+      } finally {
+        this.stateLock.readLock().unlock();
+      }
+    }
+    if (!BackendDispatcher.replyWhenDurable(op.getSeq()) && !this.journal.awaitDurable(op.getSeq())) {
+      throw new IllegalStateException("Write-ahead log failed, operation " + op.getSeq() + " is not durable");
+    }
+    return result;
+  }
+
+  /*
+   * Whether the replica answers requests (false while it is joining)
+   */
+  private boolean isServing() { return this.stateReady.getCount() == 0; }
+
+  /*
+   * Holds a state-changing request until the joining replica has its
+   * state, noting which of the sender's requests the donor must have
+   * applied before the transfer ends
+   */
+  private void awaitState(BackendOperation op) {
+    if (isServing()) return;
+    if (op.hasOrigin()) this.waitingOrigins.merge(op.getOriginAddress(), op.getOriginSeqno() - 1, Math::max);
+    try {
+      this.stateReady.await();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private boolean isApplied(BackendOperation op) {
+    if (!op.hasOrigin()) return false;
+    Long applied = this.appliedOrigins.get(op.getOriginAddress());
+    return applied != null && op.getOriginSeqno() <= applied;
+  }
+
+  /*
+   * Single entry point for state changes, used both for live requests
+   * and when replaying the WAL
+   */
+  private Object applyOperation(BackendOperation op, boolean replay) {
+    Object result;
+    switch (op.getType()) {
+      case ADD_USER:            result = applyAddUser(op, replay); break;
+      case OPEN_AUCTION:        result = applyOpenAuction(op, replay); break;
+      case CLOSE_AUCTION:       result = applyCloseAuction(op, replay); break;
+      case PLACE_BID:           result = applyPlaceBid(op, replay); break;
+      case DOUBLE_AUCTION_BUY:  result = applyDoubleAuctionBuy(op, replay); break;
+      case DOUBLE_AUCTION_SELL: result = applyDoubleAuctionSell(op, replay); break;
+      case PLACE_BIDS:          result = applyPlaceBids(op, replay); break;
+      case LEASE_IDS:           result = applyLeaseIds(op, replay); break;
+      case CLEAR_CALL_MARKET:   result = applyClearCallMarket(op, replay); break;
+      case CLEAR_CALL_MARKETS:  result = applyClearCallMarkets(op, replay); break;
+      default:                  result = null;
+    }
+    if (op.hasOrigin()) this.appliedOrigins.merge(op.getOriginAddress(), op.getOriginSeqno(), Math::max);
+    return result;
+  }
+
+  /*
+   * Appends a live operation to the WAL (replayed ones are already there)
+   * and to the tail of ongoing state transfers, and keeps it in the
+   * operation history. Callers hold the lock ordering it against
+   * conflicting operations.
+   */
+  private void logOperation(BackendOperation op, boolean replay) {
+    if (!replay) {
+      this.journal.append(op);
+      for (StateTransferSession session : this.transferSessions.values()) { session.record(op); }
+    }
+    this.history.record(op);
+  }
+
+  /*
+   * Method for RMI
+   *
+   * Leases the next "size" ids of a kind to a frontend (see IdBlockAllocator).
+   * Item ids come from this shard's own residue, every SHARD_COUNT-th id.
+   * @return first id of the block, or null if this replica does not hand
+   *         out blocks (it is not the oldest) or could not record it
+   */
+  public Long leaseIdBlockBackend(String kind, Integer size) {
+    System.out.printf("📩 Frontend request for leaseIdBlock(%s) | total requests: %d\n", kind, this.requestCount.incrementAndGet());
+    if (!isServing() || size <= 0) return null;
+    List<Address> backends = GroupUtils.backendMembers(this.dispatcher);
+    // Only the oldest replica hands out blocks, so two frontends never get the same one
+    if (backends.isEmpty() || !backends.get(0).equals(this.groupChannel.getAddress())) return null;
+
+    long start, end;
+    synchronized (this.idLeaseLock) {
+      start = Math.max(this.idLeases.getOrDefault(kind, 0L), firstUnusedId(kind));
+      if (IdBlockAllocator.ITEM_IDS.equals(kind)) start = shardItemId(start);
+      end = start + (long) size * idStride(kind);
+      execute(BackendOperation.leaseIds(kind, end));
+    }
+    // The block only counts once a majority knows about it: whichever of them
+    // hands out blocks next will not give it away again
+    try {
+      RspList<Boolean> acks = this.dispatcher.callRemoteMethods(backends.subList(1, backends.size()),
+          "recordIdLeaseBackend", new Object[] { kind, end }, new Class[] { String.class, Long.class },
+          new RequestOptions(ResponseMode.GET_ALL, this.DISPATCHER_TIMEOUT));
+      int recorded = 1;
+      for (Rsp<Boolean> ack : acks.values()) {
+        if (ack.wasReceived() && Boolean.TRUE.equals(ack.getValue())) recorded++;
+      }
+      if (recorded < backends.size() / 2 + 1) {
+        System.err.printf("🆘 Backend replica could not record %s id block [%d, %d) on a majority\n", kind, start, end);
+        return null;
+      }
+    } catch (Exception e) {
+      System.err.println("🆘 Backend replica could not record an id block:");
+      e.printStackTrace();
+      return null;
+    }
+    return start;
+  }
+
+  /*
+   * Method for RPC (id leases)
+   *
+   * Records a block handed out by the oldest replica. Blocks only ever
+   * raise the mark, so the order records arrive in does not matter.
+   */
+  public Boolean recordIdLeaseBackend(String kind, Long blockEnd) {
+    return (Boolean) execute(BackendOperation.leaseIds(kind, blockEnd));
+  }
+
+  private Boolean applyLeaseIds(BackendOperation op, boolean replay) {
+    this.idLeases.merge(op.getItemType(), op.getBlockEnd(), Math::max);
+    logOperation(op, replay);
+    return Boolean.TRUE;
+  }
+
+  /*
+   * First id above every id of that kind in use (ids assigned before leasing)
+   */
+  private long firstUnusedId(String kind) {
+    if (IdBlockAllocator.ITEM_IDS.equals(kind)) return this.globalId.get();
+    long next = 0;
+    for (Integer userId : this.userList.keySet()) { next = Math.max(next, userId + 1L); }
+    return next;
   }
 
   /*
@@ -77,15 +427,20 @@ public class AuctionServerBackend {
    * Creates and adds user ID to server's user list.
    */
   public Integer addUserBackend(Integer proposedId, String userName, byte[] userPublicKeyEncoded) {
-    this.requestCount++;
-    System.out.printf("📩 Frontend request for addUser() | total requests: %d\n", this.requestCount);
+    System.out.printf("📩 Frontend request for addUser() | total requests: %d\n", this.requestCount.incrementAndGet());
+    return (Integer) execute(BackendOperation.addUser(proposedId, userName, userPublicKeyEncoded));
+  }
+
+  private Integer applyAddUser(BackendOperation op, boolean replay) {
+    Integer proposedId = op.getUserId();
     try {
-      System.out.println("[BACKEND LOG] User " + userName + " got assigned ID " + proposedId);
-      PublicKey userPublicKey = KeyFactory.getInstance("RSA").generatePublic(new X509EncodedKeySpec(userPublicKeyEncoded));
-      this.userList.put(proposedId, new AuctionUser(proposedId, userName, "NO_PASSWORD_YET", userPublicKey));
+      System.out.println("[BACKEND LOG] User " + op.getUserName() + " got assigned ID " + proposedId);
+      PublicKey userPublicKey = KeyFactory.getInstance("RSA").generatePublic(new X509EncodedKeySpec(op.getPublicKey()));
+      this.userList.put(proposedId, new AuctionUser(proposedId, op.getUserName(), "NO_PASSWORD_YET", userPublicKey));
     } catch (Exception e) {
       System.out.println("[BACKEND ERROR]: Deserializing user public key.");
     }
+    logOperation(op, replay);
     return proposedId;
   }
 
@@ -94,19 +449,24 @@ public class AuctionServerBackend {
    *
    * Adds an auction listing to a list of double auctions by item type.
    */
-  public HashMap<Integer, HashMap<Integer, String>> addBuyerForDoubleAuctionBackend(Integer userId, String itemType, Float bid) {
-    this.requestCount++;
-    System.out.printf("📩 Frontend request for addBuyerForDoulbeAuction() | total requests: %d\n", this.requestCount);
+  @SuppressWarnings("unchecked")
+  public ArrayList<MatchEvent> addBuyerForDoubleAuctionBackend(Integer userId, String itemType, Float bid,
+                                                                                  Integer quantity) {
+    System.out.printf("📩 Frontend request for addBuyerForDoulbeAuction() | total requests: %d\n", this.requestCount.incrementAndGet());
+    return (ArrayList<MatchEvent>) execute(BackendOperation.doubleAuctionBuy(userId, itemType, bid, quantity));
+  }
+
+  private ArrayList<MatchEvent> applyDoubleAuctionBuy(BackendOperation op, boolean replay) {
+    String itemType = op.getItemType();
     DoubleAuction doubleAuciton = this.doubleAuctionList.computeIfAbsent(
         itemType.toLowerCase(), k -> new DoubleAuction(itemType));
-    doubleAuciton.addBuyer(this.userList.get(userId), bid);
-    if (this.doubleAuctionList.get(itemType.toLowerCase()).finalizeDoubleAuction()) {
-      HashMap<Integer, HashMap<Integer, String>> doubleAuctionResults = doubleAuciton.closeDoubleAuction();
-      if (!doubleAuctionResults.isEmpty()) {
-        return doubleAuctionResults;
-      }
+    // Logging + matching must not interleave with another order for the same type
+    synchronized (doubleAuciton) {
+      logOperation(op, replay);
+      ArrayList<MatchEvent> doubleAuctionResults =
+          doubleAuciton.addBuyer(this.userList.get(op.getUserId()), op.getPrice(), op.getQuantity());
+      return doubleAuctionResults.isEmpty() ? null : doubleAuctionResults;
     }
-    return null;
   }
 
   /*
@@ -114,26 +474,101 @@ public class AuctionServerBackend {
    *
    * Adds a bid to a double auction for a specific type.
    */
-  public HashMap<Integer, HashMap<Integer, String>> addSellerForDoubleAuctionBackend(Integer userId, String itemName,
-                                        String itemType, String itemDesc,
+  @SuppressWarnings("unchecked")
+  public ArrayList<MatchEvent> addSellerForDoubleAuctionBackend(Integer itemId, Integer userId,
+                                        String itemName, String itemType, String itemDesc,
                                         Integer itemCond, Float resPrice,
-                                        Float startPrice)
+                                        Float startPrice, Integer quantity)
   {
-    this.requestCount++;
-    System.out.printf("📩 Frontend request for addSellerForDoubleAuction() | total requests: %d\n", this.requestCount);
+    System.out.printf("📩 Frontend request for addSellerForDoubleAuction() | total requests: %d\n", this.requestCount.incrementAndGet());
+    BackendOperation op = BackendOperation.doubleAuctionSell(
+        userId, itemName, itemType, itemDesc, itemCond, resPrice, startPrice, quantity);
+    op.setItemId(itemId);
+    return (ArrayList<MatchEvent>) execute(op);
+  }
+
+  private ArrayList<MatchEvent> applyDoubleAuctionSell(BackendOperation op, boolean replay) {
+    String itemType = op.getItemType();
     DoubleAuction doubleAuciton = this.doubleAuctionList.computeIfAbsent(itemType.toLowerCase(), k -> new DoubleAuction(itemType));
-    AuctionItem item = new AuctionItem(assignItemId(), itemName, itemType.toLowerCase(), itemDesc, itemCond);
-    AuctionListing listing = new AuctionListing(item, startPrice, resPrice);
-    doubleAuciton.addSeller(this.userList.get(userId), listing);
-
-    if (this.doubleAuctionList.get(itemType.toLowerCase())
-            .finalizeDoubleAuction()) {
-      HashMap<Integer, HashMap<Integer, String>> doubleAuctionResults = doubleAuciton.closeDoubleAuction();
-      if (!doubleAuctionResults.isEmpty()) {
-        return doubleAuctionResults;
+    AuctionItem item = new AuctionItem(itemIdFor(op, replay), op.getTitle(), itemType.toLowerCase(),
+                                       op.getDescription(), op.getCondition());
+    AuctionListing listing = new AuctionListing(item, op.getSecondPrice(), op.getPrice());
+    synchronized (doubleAuciton) {
+      logOperation(op, replay);
+      ArrayList<MatchEvent> doubleAuctionResults =
+          doubleAuciton.addSeller(this.userList.get(op.getUserId()), listing, op.getQuantity());
+      return doubleAuctionResults.isEmpty() ? null : doubleAuctionResults;
+    }
+  }
+
+  /*
+   * Method for RMI
+   *
+   * Clears the call markets of several item types for one tick.
+   * Every frontend sends it on every tick, only the first one clears.
+   */
+  @SuppressWarnings("unchecked")
+  public ArrayList<MatchEvent> clearCallMarketsBackend(ArrayList<String> itemTypes, Long tick) {
+    System.out.printf("📩 Frontend request for clearCallMarkets() | total requests: %d\n", this.requestCount.incrementAndGet());
+    return (ArrayList<MatchEvent>) execute(BackendOperation.clearCallMarkets(itemTypes, tick));
+  }
+
+  /*
+   * Holds the books of every item type in the batch (in key order, so
+   * batches cannot deadlock each other) while logging the batch once and
+   * clearing it, so no order on those types is logged or applied in
+   * between, as for a single buy or sell.
+   *
+   * Item types are independent markets, so they are cleared in parallel:
+   * this thread clears the first one and the clearing pool the others,
+   * on this thread's behalf (see DoubleAuction.clearLocked()). It has to
+   * wait for them before the next request, which may be an order on one
+   * of these types. Each result only depends on its own book, and results
+   * are put together in the order of the request, so every replica
+   * returns the same events.
+   */
+  private ArrayList<MatchEvent> applyClearCallMarkets(BackendOperation op, boolean replay) {
+    List<BackendOperation> markets = op.getBatch();
+    TreeMap<String, DoubleAuction> books = new TreeMap<String, DoubleAuction>();
+    for (BackendOperation market : markets) { books.put(market.getItemType().toLowerCase(), doubleAuctionFor(market.getItemType())); }
+    return withBooks(books.values().iterator(), () -> {
+      logOperation(op, replay);
+      ArrayList<ForkJoinTask<ArrayList<MatchEvent>>> clearings = new ArrayList<ForkJoinTask<ArrayList<MatchEvent>>>();
+      for (int i = 1; i < markets.size(); i++) {
+        BackendOperation market = markets.get(i);
+        clearings.add(this.clearingPool.submit(() -> doubleAuctionFor(market.getItemType()).clearLocked(market.getBlockEnd())));
+      }
+      ArrayList<MatchEvent> doubleAuctionResults = new ArrayList<MatchEvent>();
+      if (!markets.isEmpty()) {
+        doubleAuctionResults.addAll(doubleAuctionFor(markets.get(0).getItemType()).clearLocked(markets.get(0).getBlockEnd()));
       }
+      for (ForkJoinTask<ArrayList<MatchEvent>> clearing : clearings) { doubleAuctionResults.addAll(clearing.join()); }
+      return doubleAuctionResults.isEmpty() ? null : doubleAuctionResults;
+    });
+  }
+
+  private <T> T withBooks(Iterator<DoubleAuction> books, Supplier<T> action) {
+    if (!books.hasNext()) return action.get();
+    synchronized (books.next()) {
+      return withBooks(books, action);
     }
-    return null;
+  }
+
+  /*
+   * A single market, as logged by earlier versions (now only as part of
+   * CLEAR_CALL_MARKETS)
+   */
+  private ArrayList<MatchEvent> applyClearCallMarket(BackendOperation op, boolean replay) {
+    DoubleAuction doubleAuciton = doubleAuctionFor(op.getItemType());
+    synchronized (doubleAuciton) {
+      logOperation(op, replay);
+      ArrayList<MatchEvent> doubleAuctionResults = doubleAuciton.clear(op.getBlockEnd());
+      return doubleAuctionResults.isEmpty() ? null : doubleAuctionResults;
+    }
+  }
+
+  private DoubleAuction doubleAuctionFor(String itemType) {
+    return this.doubleAuctionList.computeIfAbsent(itemType.toLowerCase(), k -> new DoubleAuction(itemType));
   }
 
   /*
@@ -143,17 +578,21 @@ public class AuctionServerBackend {
    */
   public AuctionListing closeAuctionBackend(Integer listingId, String itemType,
                                      Integer userId) {
-    this.requestCount++;
-    System.out.printf("📩 Frontend request for closeAuction() | total requests: %d\n", this.requestCount);
-    String itemLowerCase = itemType.toLowerCase();
-    if (this.auctionList.containsKey(itemLowerCase) &&
-        this.auctionList.get(itemLowerCase).containsKey(listingId)) {
-      AuctionListing returnListing =
-          this.auctionList.get(itemLowerCase).get(listingId);
-      this.auctionList.get(itemLowerCase).remove(listingId);
-      System.out.println("> User " + this.userList.get(userId).getUserName() +
+    System.out.printf("📩 Frontend request for closeAuction() | total requests: %d\n", this.requestCount.incrementAndGet());
+    return (AuctionListing) execute(BackendOperation.closeAuction(listingId, itemType, userId));
+  }
+
+  private AuctionListing applyCloseAuction(BackendOperation op, boolean replay) {
+    Integer listingId = op.getItemId();
+    CompactListing closedListing;
+    synchronized (lockFor(listingId)) {
+      closedListing = removeListing(op.getItemType().toLowerCase(), listingId);
+      logOperation(op, replay);
+    }
+    if (closedListing != null) {
+      System.out.println("> User " + this.userList.get(op.getUserId()).getUserName() +
                          " closed auction with ID: " + listingId);
-      return returnListing;
+      return toWireListing(closedListing);
     }
     return null;
   }
@@ -163,19 +602,35 @@ public class AuctionServerBackend {
    *
    * Create an auction for a given item's details.
    */
-  public AuctionListing openAuctionBackend(Integer userId, String itName,
+  public AuctionListing openAuctionBackend(Integer itemId, Integer userId, String itName,
                                     String itType, String itDesc,
                                     Integer itCond, Float resPrice,
                                     Float startPrice) {
-    this.requestCount++;
-    System.out.printf("📩 Frontend request for openAuction() | total requests: %d\n", this.requestCount);
-    AuctionItem item = new AuctionItem(assignItemId(), itName, itType, itDesc, itCond);
-    AuctionListing listing =
-        addListing(new AuctionListing(item, startPrice, resPrice));
-    System.out.println("> User " + this.userList.get(userId).getUserName() +
-                       " created auction for \"" + itName +
-                       "\", id: " + item.getItemId());
-    return listing;
+    System.out.printf("📩 Frontend request for openAuction() | total requests: %d\n", this.requestCount.incrementAndGet());
+    BackendOperation op = BackendOperation.openAuction(userId, itName, itType, itDesc, itCond, resPrice, startPrice);
+    op.setItemId(itemId);
+    return (AuctionListing) execute(op);
+  }
+
+  private AuctionListing applyOpenAuction(BackendOperation op, boolean replay) {
+    AuctionItemTypeEnum itemType = AuctionItemTypeEnum.fromString(op.getItemType());
+    if (itemType == null) {
+      System.out.println("> Item type " + op.getItemType() + " does not exist");
+      logOperation(op, replay);
+      return null;
+    }
+    Integer itemId = itemIdFor(op, replay);
+    CompactListing listing;
+    synchronized (lockFor(itemId)) {
+      listing = addListing(new CompactListing(itemId, itemType, op.getCondition(), op.getTitle(), op.getDescription(),
+                                              CompactListing.toCents(op.getSecondPrice()),
+                                              CompactListing.toCents(op.getPrice())));
+      logOperation(op, replay);
+    }
+    System.out.println("> User " + this.userList.get(op.getUserId()).getUserName() +
+                       " created auction for \"" + op.getTitle() +
+                       "\", id: " + listing.getItemId());
+    return toWireListing(listing);
   }
 
   /*
@@ -185,27 +640,55 @@ public class AuctionServerBackend {
    * of a specific type.
    */
   public String retrieveItemsByTypeBackend(String type) {
-    this.requestCount++;
-    System.out.printf("📩 Frontend request for retrieveItemsByType() | total requests: %d\n", this.requestCount);
-    if (!this.auctionList.containsKey(type.toLowerCase()) || this.auctionList.get(type.toLowerCase()).size() == 0)
+    System.out.printf("📩 Frontend request for retrieveItemsByType() | total requests: %d\n", this.requestCount.incrementAndGet());
+    if (!isServing()) return null;
+    ConcurrentSkipListSet<ListingSortKey> typeIndex = this.priceIndex.get(type.toLowerCase());
+    if (typeIndex == null || typeIndex.isEmpty())
       return null;
 
     String barrier = "--- All Available " + type.toUpperCase() + " ---\n";
-    String list = "-".repeat(barrier.length() - 1) + "\n" + barrier;
-    for (Map.Entry<Integer, AuctionListing> listing :
-         this.auctionList.get(type.toLowerCase()).entrySet()) {
-      list += "ID: " + listing.getKey() + "\n"
-              + "Item condition: " +
-              listing.getValue().getItem().getItemCondition() + "\n"
-              + "Current price: " +
-              ((listing.getValue().getCurrentPrice().compareTo(
-                    listing.getValue().getStartingPrice()) < 0)
-                   ? listing.getValue().getStartingPrice()
-                   : listing.getValue().getCurrentPrice()) +
-              " EUR\n\n";
+    StringBuilder list = new StringBuilder("-".repeat(barrier.length() - 1) + "\n" + barrier);
+    for (ListingSortKey key : typeIndex) {
+      CompactListing listing = this.listingStore.get(key.getItemId());
+      if (listing == null) continue;
+      list.append("ID: ").append(key.getItemId()).append("\n")
+          .append("Item condition: ").append(AuctionItem.conditionDescription(listing.getCondition())).append("\n")
+          .append("Current price: ").append(CompactListing.fromCents(key.getPriceCents())).append(" EUR\n\n");
+    }
+    list.append("-".repeat(barrier.length() - 1)).append("\n").append("-".repeat(barrier.length() - 1)).append("\n");
+    return list.toString();
+  }
+
+  /*
+   * Method for RMI
+   *
+   * Returns one page of a category ordered by price (then id),
+   * starting after the given cursor (null for the first page).
+   * A missing or non-positive page size or a malformed cursor gets null.
+   */
+  public AuctionListingPage retrieveItemsByTypePageBackend(String type, String cursor, Integer pageSize) {
+    System.out.printf("📩 Frontend request for retrieveItemsByTypePage() | total requests: %d\n", this.requestCount.incrementAndGet());
+    if (!isServing() || pageSize == null || pageSize < 1) return null;
+    ListingSortKey after = (cursor == null) ? null : ListingSortKey.fromCursor(cursor);
+    if (cursor != null && after == null) return null;
+    ConcurrentSkipListSet<ListingSortKey> typeIndex = this.priceIndex.get(type.toLowerCase());
+    if (typeIndex == null) return new AuctionListingPage(new ArrayList<AuctionListingPage.Entry>(), null);
+
+    int limit = Math.min(pageSize, MAX_PAGE_SIZE);
+    Iterator<ListingSortKey> it = ((after == null) ? typeIndex : typeIndex.tailSet(after, false)).iterator();
+
+    ArrayList<AuctionListingPage.Entry> entries = new ArrayList<AuctionListingPage.Entry>(limit);
+    ListingSortKey last = null;
+    while (entries.size() < limit && it.hasNext()) {
+      ListingSortKey key = it.next();
+      CompactListing listing = this.listingStore.get(key.getItemId());
+      if (listing == null) continue;
+      entries.add(new AuctionListingPage.Entry(listing.getItemId(), listing.getTitle(),
+                                               AuctionItem.conditionDescription(listing.getCondition()),
+                                               CompactListing.fromCents(key.getPriceCents())));
+      last = key;
     }
-    list += "-".repeat(barrier.length() - 1) + "\n" + "-".repeat(barrier.length() - 1) + "\n";
-    return list;
+    return new AuctionListingPage(entries, (it.hasNext() && last != null) ? last.toCursor() : null);
   }
 
   /*
@@ -214,17 +697,14 @@ public class AuctionServerBackend {
    * Return details from a requested item by ID.
    */
   public AuctionItem getSpecBackend(Integer itemId, String clientId) {
-    this.requestCount++;
-    System.out.printf("📩 Frontend request for getSpec() | total requests: %d\n", this.requestCount);
+    System.out.printf("📩 Frontend request for getSpec() | total requests: %d\n", this.requestCount.incrementAndGet());
+    if (!isServing()) return null;
     System.out.println("> User " + clientId + " requested item " + itemId);
 
-    for (Map.Entry<String, HashMap<Integer, AuctionListing>> entry :
-         this.auctionList.entrySet()) {
-      if (entry.getValue().containsKey(itemId)) {
-        System.out.println("> Succesfully retreived item with ID: " + itemId);
-        AuctionItem selectedItem = entry.getValue().get(itemId).getItem();
-        return selectedItem;
-      }
+    CompactListing listing = findListing(itemId);
+    if (listing != null) {
+      System.out.println("> Succesfully retreived item with ID: " + itemId);
+      return listing.toAuctionItem();
     }
 
     System.out.println("> Item with itemId " + itemId + " does not exist");
@@ -238,45 +718,90 @@ public class AuctionServerBackend {
    * @return Boolean: whether the bid was placed succesfully (auction ID exists)
    */
   public Boolean placeBidBackend(Integer userId, Integer auctionListingId, Float bid) {
-    this.requestCount++;
-    System.out.printf("📩 Frontend request for placeBid() | total requests: %d\n", this.requestCount);
-    for (Map.Entry<String, HashMap<Integer, AuctionListing>> entry : this.auctionList.entrySet()) {
-      if (entry.getValue().containsKey(auctionListingId)) {
-        AuctionListing auctionListing = entry.getValue().get(auctionListingId);
-        auctionListing.appendAuctionLog(
-            "[AUCTION LOG] User " + this.userList.get(userId).getUserName() +
-            " requested to place a bid of " + bid + " EUR.\n");
-        if ((auctionListing.getCurrentPrice() < bid) && (bid >= auctionListing.getStartingPrice())) {
-          auctionListing.setCurrentPrice(bid);
-          auctionListing.setBestBidUser(this.userList.get(userId).getUserName());
-          auctionListing.appendAuctionLog(
-              "[AUCTION LOG] User " + this.userList.get(userId).getUserName() +
-              " bid accepted: " + bid + " EUR.\n");
-        } else {
-          auctionListing.appendAuctionLog(
-              "[AUCTION LOG] User " + this.userList.get(userId).getUserName() +
-              " bid NOT accepted: " + bid + " EUR.\n");
-        }
-        return true;
+    System.out.printf("📩 Frontend request for placeBid() | total requests: %d\n", this.requestCount.incrementAndGet());
+    return (Boolean) execute(BackendOperation.placeBid(userId, auctionListingId, bid));
+  }
+
+  private Boolean applyPlaceBid(BackendOperation op, boolean replay) {
+    String userName = this.userList.get(op.getUserId()).getUserName();
+    synchronized (lockFor(op.getItemId())) {
+      logOperation(op, replay);
+      return placeBidLocked(op, userName);
+    }
+  }
+
+  /*
+   * Method for RMI
+   *
+   * Places several bids at once (see BidCoalescer).
+   * @return one result per bid, as placeBidBackend() would return it
+   */
+  @SuppressWarnings("unchecked")
+  public ArrayList<Boolean> placeBidsBackend(ArrayList<BidRequest> bids) {
+    System.out.printf("📩 Frontend request for placeBids(%d) | total requests: %d\n", bids.size(), this.requestCount.incrementAndGet());
+    return (ArrayList<Boolean>) execute(BackendOperation.placeBids(bids));
+  }
+
+  /*
+   * Holds the lock stripes of every listing in the batch (in stripe order,
+   * so batches cannot deadlock each other) while logging the batch once
+   * and placing its bids in order
+   */
+  private ArrayList<Boolean> applyPlaceBids(BackendOperation op, boolean replay) {
+    TreeSet<Integer> stripes = new TreeSet<Integer>();
+    for (BackendOperation bid : op.getBatch()) { stripes.add(stripeFor(bid.getItemId())); }
+    return withStripes(stripes.iterator(), () -> {
+      logOperation(op, replay);
+      ArrayList<Boolean> results = new ArrayList<Boolean>(op.getBatch().size());
+      for (BackendOperation bid : op.getBatch()) {
+        AuctionUser user = this.userList.get(bid.getUserId());
+        results.add((user == null) ? Boolean.FALSE : placeBidLocked(bid, user.getUserName()));
       }
+      return results;
+    });
+  }
+
+  private <T> T withStripes(Iterator<Integer> stripes, Supplier<T> action) {
+    if (!stripes.hasNext()) return action.get();
+    synchronized (this.listingLocks[stripes.next()]) {
+      return withStripes(stripes, action);
+    }
+  }
+
+  /*
+   * Places a bid (caller holds the listing's lock stripe)
+   */
+  private Boolean placeBidLocked(BackendOperation op, String userName) {
+    Integer userId = op.getUserId();
+    long bidCents = CompactListing.toCents(op.getPrice());
+    // Looked up under the stripe so a concurrent close cannot slip in between
+    CompactListing auctionListing = findListing(op.getItemId());
+    if (auctionListing == null) return false;
+    boolean accepted = auctionListing.isBidAcceptable(bidCents);
+    if (accepted) {
+      // Re-key the listing in its category's price index
+      String itemType = auctionListing.getItemType().getKey();
+      ConcurrentSkipListSet<ListingSortKey> typeIndex = priceIndexFor(itemType);
+      typeIndex.remove(ListingSortKey.of(auctionListing));
+      auctionListing.acceptBid(userId, bidCents);
+      typeIndex.add(ListingSortKey.of(auctionListing));
+      this.renderCache.invalidate(itemType);
     }
-    return false;
+    auctionListing.logBid(userName, bidCents, accepted);
+    this.listingStore.update(auctionListing);
+    return true;
   }
 
+
   /*
    * Method for RMI
    *
    * Checks whether an id is amongst existing auctions.
    */
   public Boolean idMatchesExistingItemBackend(Integer id) {
-    this.requestCount++;
-    System.out.printf("📩 Frontend request for idMatchesExistingItem() | total requests: %d\n", this.requestCount);
-    for (Map.Entry<String, HashMap<Integer, AuctionListing>> entry :
-         this.auctionList.entrySet()) {
-      if (entry.getValue().containsKey(id))
-        return true;
-    }
-    return false;
+    System.out.printf("📩 Frontend request for idMatchesExistingItem() | total requests: %d\n", this.requestCount.incrementAndGet());
+    if (!isServing()) return null;
+    return this.listingStore.contains(id);
   }
 
   /*
@@ -285,26 +810,22 @@ public class AuctionServerBackend {
    * Checks if the price prompted by a buyer exceeds the starting/current price for item
    */
   public Boolean isBidPriceAcceptableBackend(Integer listingId, Float price) {
-    this.requestCount++;
-    System.out.printf("📩 Frontend request for isBidPriceAcceptable() | total requests: %d\n", this.requestCount);
-    for (Map.Entry<String, HashMap<Integer, AuctionListing>> entry :
-         this.auctionList.entrySet()) {
-      if (entry.getValue().containsKey(listingId)) {
-        if (entry.getValue().get(listingId).getCurrentPrice() > 0.0f) {
-          return entry.getValue().get(listingId).getCurrentPrice().compareTo(
-                     price) < 0;
-        } else {
-          return entry.getValue().get(listingId).getStartingPrice().compareTo(
-                     price) <= 0;
-        }
+    System.out.printf("📩 Frontend request for isBidPriceAcceptable() | total requests: %d\n", this.requestCount.incrementAndGet());
+    if (!isServing()) return null;
+    synchronized (lockFor(listingId)) {
+      CompactListing listing = findListing(listingId);
+      if (listing == null) return true;
+      long priceCents = CompactListing.toCents(price);
+      if (listing.getCurrentCents() > 0) {
+        return listing.getCurrentCents() < priceCents;
       }
+      return listing.getStartingCents() <= priceCents;
     }
-    return true;
   }
 
   public AuctionUser getUserByInt(Integer userId) {
-    this.requestCount++;
-    System.out.printf("📩 Frontend request for getUserByInt() | total requests: %d\n", this.requestCount);
+    System.out.printf("📩 Frontend request for getUserByInt() | total requests: %d\n", this.requestCount.incrementAndGet());
+    if (!isServing()) return null;
     System.out.println("✅ User with ID " + userId + " -> " + this.userList.get(userId));
     return this.userList.get(userId);
   }
@@ -315,35 +836,77 @@ public class AuctionServerBackend {
    * Sends complete list of auctioned items (forward auction)
    */
   public String getAuctionedItemsBackend() {
-    this.requestCount++;
-    System.out.printf("📩 Frontend request for getAuctionedItems() | total requests: %d\n", this.requestCount);
-    if (this.auctionList.isEmpty() || this.auctionList.values().stream().allMatch(Map::isEmpty))
+    System.out.printf("📩 Frontend request for getAuctionedItems() | total requests: %d\n", this.requestCount.incrementAndGet());
+    if (!isServing()) return null;
+    return this.renderCache.renderAll(this::renderAuctionedItems);
+  }
+
+  /*
+   * Method for RMI
+   *
+   * Forward auction entries of this shard, per category, for a frontend
+   * merging the lists of several shards (see frameAuctionedItems())
+   */
+  public HashMap<String, String> getAuctionedCategoriesBackend() {
+    System.out.printf("📩 Frontend request for getAuctionedCategories() | total requests: %d\n", this.requestCount.incrementAndGet());
+    if (!isServing()) return null;
+    HashMap<String, String> categories = new HashMap<String, String>();
+    for (String itemType : this.priceIndex.keySet()) {
+      if (this.priceIndex.get(itemType).isEmpty()) continue;
+      categories.put(itemType, this.renderCache.renderCategory(itemType, this::renderCategoryItems));
+    }
+    return categories;
+  }
+
+  /*
+   * Full forward auction list, assembled from the per-category renderings
+   * (categories in name order so every replica renders the same text)
+   */
+  private String renderAuctionedItems() {
+    if (this.priceIndex.values().stream().allMatch(ConcurrentSkipListSet::isEmpty))
       return null;
 
-    String introStr = "\n|---- Forward Auction List (all available items) ----|\n";
-    introStr += "|----------------------------------------------------|\n";
-    String strToStd = introStr;
-    for (HashMap.Entry<String, HashMap<Integer, AuctionListing>> listing :
-         this.auctionList.entrySet()) {
-      for (HashMap.Entry<Integer, AuctionListing> entry :
-           this.auctionList.get(listing.getKey()).entrySet()) {
-        strToStd += "\n------------------------------------------" + String.format(
-          "\n| %-22s %-15s |" +
-          "\n| %-22s %-15s |" +
-          "\n| %-22s %-15s |" +
-          "\n| %-22s %-15s |",
-          "ID:", entry.getValue().getItem().getItemId(),
-          "Item:", entry.getValue().getItem().getItemTitle(),
-          "Starting price:", entry.getValue().getStartingPrice(),
-          "Current best bid:", (entry.getValue().getCurrentPrice() == 0.0f)
-              ? "No bids yet"
-              : (entry.getValue().getCurrentPrice().toString() + " EUR")
-        ) + "\n------------------------------------------\n\n";
-      }
+    ArrayList<String> categories = new ArrayList<String>();
+    for (String itemType : new TreeSet<String>(this.priceIndex.keySet())) {
+      categories.add(this.renderCache.renderCategory(itemType, this::renderCategoryItems));
     }
-    strToStd += "|----------------------------------------------------|\n";
-    strToStd += "|----------------------------------------------------|\n";
-    return strToStd;
+    return frameAuctionedItems(categories);
+  }
+
+  /*
+   * Forward auction list around category renderings, in the given order
+   */
+  public static String frameAuctionedItems(Collection<String> categories) {
+    StringBuilder strToStd = new StringBuilder("\n|---- Forward Auction List (all available items) ----|\n");
+    strToStd.append("|----------------------------------------------------|\n");
+    for (String category : categories) { strToStd.append(category); }
+    strToStd.append("|----------------------------------------------------|\n");
+    strToStd.append("|----------------------------------------------------|\n");
+    return strToStd.toString();
+  }
+
+  /*
+   * Forward auction entries of one category, in price order
+   */
+  private String renderCategoryItems(String itemType) {
+    StringBuilder categoryStr = new StringBuilder();
+    for (ListingSortKey key : priceIndexFor(itemType)) {
+      CompactListing listing = this.listingStore.get(key.getItemId());
+      if (listing == null) continue;
+      categoryStr.append("\n------------------------------------------").append(String.format(
+        "\n| %-22s %-15s |" +
+        "\n| %-22s %-15s |" +
+        "\n| %-22s %-15s |" +
+        "\n| %-22s %-15s |",
+        "ID:", listing.getItemId(),
+        "Item:", listing.getTitle(),
+        "Starting price:", CompactListing.fromCents(listing.getStartingCents()),
+        "Current best bid:", (listing.getCurrentCents() == 0)
+            ? "No bids yet"
+            : (CompactListing.fromCents(listing.getCurrentCents()) + " EUR")
+      )).append("\n------------------------------------------\n\n");
+    }
+    return categoryStr.toString();
   }
 
   /*
@@ -354,124 +917,410 @@ public class AuctionServerBackend {
     System.out.println("✅ Backend replica ready");
   }
 
-  public HashMap<String, HashMap<Integer, AuctionListing>> getAuctionListState() {
-    return this.auctionList;
+  /**
+   * Rebuilds state from the local snapshot plus the WAL tail
+   * (no-op when the WAL is disabled)
+   */
+  private void recoverLocalState() {
+    if (!this.journal.isEnabled()) return;
+    long startTime = System.currentTimeMillis();
+    try {
+      BackendSnapshot snapshot = BackendSnapshot.readFrom(this.journal.getDirectory());
+      long snapshotSeq = 0;
+      if (snapshot != null) {
+        installSnapshot(snapshot);
+        snapshotSeq = snapshot.getSeq();
+      }
+      List<BackendOperation> tail = this.journal.recover(snapshotSeq);
+      for (BackendOperation op : tail) { applyOperation(op, true); }
+      System.out.printf("✅ Backend replica recovered %d listings, %d users (snapshot at #%d + %d WAL operations) in %d ms\n",
+                        this.listingStore.size(), this.userList.size(), snapshotSeq, tail.size(),
+                        System.currentTimeMillis() - startTime);
+    } catch (Exception e) {
+      System.err.println("🆘 Backend replica recovery error - could not read snapshot/WAL:");
+      e.printStackTrace();
+    }
+  }
+
+  /*
+   * Replaces the replica's state with a snapshot
+   */
+  private void installSnapshot(BackendSnapshot snapshot) {
+    this.listingStore.clear();
+    snapshot.getListings().forEach(this.listingStore::put);
+    this.userList = new ConcurrentHashMap<Integer, AuctionUser>(snapshot.getUsers());
+    this.doubleAuctionList = new ConcurrentHashMap<String, DoubleAuction>(snapshot.getDoubleAuctions());
+    this.globalId.set(snapshot.getNextItemId());
+    this.appliedOrigins.putAll(snapshot.getAppliedOrigins());
+    this.idLeases.putAll(snapshot.getIdLeases());
+    this.journal.setLastSeq(snapshot.getSeq());
+    this.history.resetTo(snapshot.getSeq(), snapshot.getAppliedOrigins());
+    rebuildListingIndex();
+  }
+
+  /*
+   * Consistent copy of the replica's state. Pauses state-changing
+   * requests only for the copy, not for the disk write.
+   */
+  private BackendSnapshot captureSnapshot() throws Exception {
+    this.stateLock.writeLock().lock();
+    try {
+      this.journal.rollover();
+      return copyState();
+    } finally {
+      this.stateLock.writeLock().unlock();
+    }
   }
 
-  public HashMap<String, DoubleAuction> getDoubleAuctionListState() {
-    return this.doubleAuctionList;
+  /*
+   * Copy of the state (callers hold the stateLock write side)
+   */
+  private BackendSnapshot copyState() {
+    ArrayList<CompactListing> listings = new ArrayList<CompactListing>(this.listingStore.size());
+    this.listingStore.forEach(listing -> listings.add(listing.copy()));
+    return new BackendSnapshot(this.journal.getLastSeq(), this.globalId.get(), listings,
+                               this.userList, this.doubleAuctionList, this.appliedOrigins, this.idLeases);
   }
 
-  public HashMap<Integer, AuctionUser> getUserListState() {
-    return this.userList;
+  /*
+   * Writes a snapshot and drops the WAL segments it covers
+   */
+  private void takeSnapshot() {
+    if (!this.journal.isEnabled() || !isServing()) return;
+    try {
+      BackendSnapshot snapshot = captureSnapshot();
+      snapshot.writeTo(this.journal.getDirectory());
+      this.journal.truncateBefore(snapshot.getSeq());
+      System.out.printf("✅ Backend replica snapshot at #%d (%d listings)\n", snapshot.getSeq(), snapshot.getListings().size());
+    } catch (Exception e) {
+      System.err.println("🆘 Backend replica snapshot error:");
+      e.printStackTrace();
+    }
   }
 
-  public Integer getItemCounterId() {
-    return globalId;
+  /*
+   * Snapshot right after joining (the synced state may differ from what
+   * the local WAL describes), then every SNAPSHOT_INTERVAL_SECONDS
+   */
+  private void startSnapshots() {
+    if (!this.journal.isEnabled()) return;
+    takeSnapshot();
+    ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(task -> {
+      Thread thread = new Thread(task, "snapshot-scheduler");
+      thread.setDaemon(true);
+      return thread;
+    });
+    scheduler.scheduleWithFixedDelay(this::takeSnapshot, SNAPSHOT_INTERVAL_SECONDS,
+                                     SNAPSHOT_INTERVAL_SECONDS, TimeUnit.SECONDS);
   }
 
   /**
-   * Gets the state of the Backend Replica up with the rest
+   * Gets the state of the Backend Replica up with the rest.
+   *
+   * One donor replica takes a consistent cut of its state, which this
+   * replica pulls in bounded chunks, followed by the operations the donor
+   * applied since the cut. Requests reaching this replica meanwhile wait
+   * (see awaitState()) and are skipped if the transferred state already
+   * contains them.
+   *
+   * A replica restarting with local state (WAL) first asks for just the
+   * operations it missed, from the donor's operation history.
    */
   public void syncBackendState() throws Exception {
+    syncBackendState(null, true);
+  }
+
+  /*
+   * Tries "preferredDonor" first, if given. A repair skips the delta:
+   * the local state is wrong, not just behind.
+   */
+  private void syncBackendState(Address preferredDonor, boolean allowDelta) throws Exception {
     System.out.println("📩 Backend replica state organising function request via rmi\n");
-    syncAuctionListState();
-    syncDoubleAuctionListState();
-    syncUserListState();
-    syncCounter();
+    for (int attempt = 1; ; attempt++) {
+      Address donor = (attempt == 1 && preferredDonor != null) ? preferredDonor : chooseStateDonor();
+      if (donor == null) {
+        System.out.println("📩 Backend replica state: no other replica, keeping local state\n");
+        return;
+      }
+      try {
+        if (!allowDelta || !receiveDelta(donor)) receiveState(donor);
+        return;
+      } catch (Exception e) {
+        System.err.printf("🆘 Backend replica state transfer from %s failed (attempt %d)\n", donor, attempt);
+        if (attempt == 3) throw e;
+      }
+    }
   }
 
-  private void syncCounter() {
-    System.out.println("📩 Backend replica state: synchronizing the item counter...\n");
+  /*
+   * Method for RPC (digest agreement)
+   *
+   * Runs a frontend request (methodName) and answers with a digest of its
+   * result. Only the "designated" replica includes the result itself; the
+   * others keep it for fetchAnswerBackend().
+   *
+   * A null result is an answer like any other (digest of the encoded
+   * null), so replicas disagreeing on it are found and repaired. The
+   * replica only abstains when its null says nothing: it was not serving
+   * yet, or the request was in the state transferred to it.
+   */
+  public ReplicaAnswer digestedCallBackend(String requestId, String designated, String methodName,
+                                           Object[] args, Class<?>[] types) throws Exception {
+    boolean serving = isServing();
+    this.answeredByTransfer.remove();
+    Object result;
     try {
-      RspList<Integer> counterState =
-        this.dispatcher.callRemoteMethods(null, "getItemCounterId",
-        new Object[] {},
-        new Class[] {},
-        new RequestOptions(ResponseMode.GET_ALL, this.DISPATCHER_TIMEOUT));
-      Integer syncedCounter = GroupUtils.matchAllReplicaResponses(counterState);
-      if (syncedCounter == null) {
-        globalId = 0;
-      } else {
-        globalId = syncedCounter;
-      }
-    } catch (Exception e) {
-      System.err.println("🆘 Backend replica item counter syncrhonization error - dispatcher exception:");
-      e.printStackTrace();
+      result = new MethodCall(methodName, args, types).invoke(this);
+      if (result == null && (!serving || Boolean.TRUE.equals(this.answeredByTransfer.get()))) return null;
+    } finally {
+      this.answeredByTransfer.remove();
     }
+    byte[] serialized = ReplicaAnswer.serialize(result);
+    synchronized (this.recentAnswers) { this.recentAnswers.put(requestId, serialized); }
+    return ReplicaAnswer.of(serialized, designated.equals(BackendDispatcher.addressKey(this.groupChannel.getAddress())));
   }
 
-  /**
-   * Check (and synchronize with existing replicas, if needed)
-   * the state of the user list.
+  /*
+   * Method for RPC (digest agreement)
+   *
+   * Full result of a digested request, for when the designated replica's
+   * answer did not make the majority. Null if no longer kept.
+   */
+  public ReplicaAnswer fetchAnswerBackend(String requestId) throws Exception {
+    byte[] serialized;
+    synchronized (this.recentAnswers) { serialized = this.recentAnswers.get(requestId); }
+    return (serialized == null) ? null : ReplicaAnswer.of(serialized, true);
+  }
+
+  /*
+   * Method for RPC (replica repair)
+   *
+   * Sent by a frontend when this replica answered a write differently
+   * from the majority. Reloads the whole state from "donorKey" (a replica
+   * in the majority) in the background; requests wait meanwhile, as they
+   * do while joining.
    */
-  private void syncUserListState() {
-    System.out.println("📩 Backend replica state: synchronizing the user list...\n");
+  public void repairStateBackend(String donorKey) {
+    System.out.printf("📩 Backend request for repairState() | total requests: %d\n", this.requestCount.incrementAndGet());
+    if (!isServing() || !this.repairing.compareAndSet(false, true)) return;
+    Thread repair = new Thread(() -> repairState(donorKey), "state-repair");
+    repair.setDaemon(true);
+    repair.start();
+  }
+
+  private void repairState(String donorKey) {
+    this.stateReady = new CountDownLatch(1);
+    // Let the requests already being applied finish
+    this.stateLock.writeLock().lock();
+    this.stateLock.writeLock().unlock();
     try {
-      RspList<HashMap<Integer, AuctionUser>> userListState =
-        this.dispatcher.callRemoteMethods(null, "getUserListState",
-        new Object[] {},
-        new Class[] {},
-        new RequestOptions(ResponseMode.GET_ALL, this.DISPATCHER_TIMEOUT));
-      HashMap<Integer, AuctionUser> syncedUserList = GroupUtils.matchAllReplicaResponses(userListState);
-      if (syncedUserList == null) {
-        this.userList = new HashMap<Integer, AuctionUser>();
-      } else {
-        this.userList = syncedUserList;
-      }
+      syncBackendState(findMember(donorKey), false);
     } catch (Exception e) {
-      System.err.println("🆘 Backend replica user list syncrhonization error - dispatcher exception:");
+      System.err.println("🆘 Backend replica could not repair its state from other replicas:");
       e.printStackTrace();
+      System.exit(1);
     }
+    this.waitingOrigins.clear();
+    this.stateReady.countDown();
+    this.repairing.set(false);
+    takeSnapshot();
   }
 
-  /**
-   * Check (and synchronize with existing replicas, if needed)
-   * the state of the global auction list.
+  private Address findMember(String addressKey) {
+    for (Address member : this.groupChannel.getView().getMembers()) {
+      if (BackendDispatcher.addressKey(member).equals(addressKey)) return member;
+    }
+    return null;
+  }
+
+  /*
+   * Serving replica with the most recent state, or null if there is none
    */
-  private void syncAuctionListState() {
-    System.out.println("📩 Backend replica state: synchronizing the auction list...\n");
-    try {
-      RspList<HashMap<String, HashMap<Integer, AuctionListing>>> auctionListState =
-        this.dispatcher.callRemoteMethods(null, "getAuctionListState",
+  private Address chooseStateDonor() throws Exception {
+    RspList<Long> versions = this.dispatcher.callRemoteMethods(null, "getStateVersionBackend",
         new Object[] {},
         new Class[] {},
         new RequestOptions(ResponseMode.GET_ALL, this.DISPATCHER_TIMEOUT));
+    Address donor = null;
+    long donorVersion = -1;
+    for (Map.Entry<Address, Rsp<Long>> entry : versions.entrySet()) {
+      Long version = entry.getValue().getValue();
+      if (entry.getValue().wasReceived() && version != null && version > donorVersion) {
+        donor = entry.getKey();
+        donorVersion = version;
+      }
+    }
+    return donor;
+  }
+
+  private void receiveState(Address donor) throws Exception {
+    RequestOptions options = new RequestOptions(ResponseMode.GET_FIRST, this.STATE_TRANSFER_TIMEOUT);
+    long startTime = System.currentTimeMillis();
+    StateTransferSession.Header header = this.dispatcher.callRemoteMethod(donor, "beginStateTransferBackend",
+        new Object[] {}, new Class[] {}, options);
+    if (header == null) throw new IllegalStateException(donor + " is not serving");
+    System.out.printf("📩 Backend replica state: receiving state #%d from %s in %d chunks\n",
+                      header.getSeq(), donor, header.getChunkCount());
+
+    this.listingStore.clear();
+    this.userList = new ConcurrentHashMap<Integer, AuctionUser>();
+    this.doubleAuctionList = new ConcurrentHashMap<String, DoubleAuction>(header.getDoubleAuctions());
+    this.appliedOrigins.clear();
+    this.appliedOrigins.putAll(header.getAppliedOrigins());
+    this.idLeases.clear();
+    this.idLeases.putAll(header.getIdLeases());
+    this.globalId.set(header.getNextItemId());
+    for (int i = 0; i < header.getChunkCount(); i++) {
+      StateTransferSession.Chunk chunk = this.dispatcher.callRemoteMethod(donor, "fetchStateChunkBackend",
+          new Object[] { header.getTransferId(), i }, new Class[] { String.class, Integer.class }, options);
+      if (chunk == null) throw new IllegalStateException("transfer " + header.getTransferId() + " expired");
+      chunk.getUsers().forEach(user -> this.userList.put(user.getUserId(), user));
+      chunk.getListings().forEach(this.listingStore::put);
+    }
+    this.journal.reset(header.getSeq());
+    this.history.resetTo(header.getSeq(), header.getAppliedOrigins());
+    rebuildListingIndex();
+    int received = receiveTail(donor, header, options);
+
+    System.out.printf("✅ Backend replica state: %d listings, %d users, %d later operations in %d ms\n",
+                      this.listingStore.size(), this.userList.size(), received,
+                      System.currentTimeMillis() - startTime);
+  }
+
+  /*
+   * Catches up from the donor's operation history
+   * @return false if the donor no longer has all the missing operations
+   */
+  private boolean receiveDelta(Address donor) throws Exception {
+    if (this.journal.getLastSeq() == 0 && this.appliedOrigins.isEmpty()) return false;
+    RequestOptions options = new RequestOptions(ResponseMode.GET_FIRST, this.STATE_TRANSFER_TIMEOUT);
+    long startTime = System.currentTimeMillis();
+    StateTransferSession.Header header = this.dispatcher.callRemoteMethod(donor, "beginDeltaTransferBackend",
+        new Object[] { this.journal.getLastSeq(), new HashMap<String, Long>(this.appliedOrigins) },
+        new Class[] { Long.class, HashMap.class }, options);
+    if (header == null) {
+      System.out.println("📩 Backend replica state: too far behind " + donor + " for a delta, transferring full state\n");
+      return false;
+    }
+    int received = receiveTail(donor, header, options);
+    System.out.printf("✅ Backend replica state: caught up with %d missed operations from %s in %d ms\n",
+                      received, donor, System.currentTimeMillis() - startTime);
+    return true;
+  }
 
-      HashMap<String, HashMap<Integer, AuctionListing>> syncedAuctions = GroupUtils.matchAllReplicaResponses(auctionListState);
-      if (syncedAuctions == null) {
-        this.auctionList = new HashMap<String, HashMap<Integer, AuctionListing>>();
-      } else {
-        this.auctionList = syncedAuctions;
+  /*
+   * Applies the operations the donor logged after the cut (or the missed
+   * ones, for a delta), in the order it logged them
+   */
+  private int receiveTail(Address donor, StateTransferSession.Header header, RequestOptions options) throws Exception {
+    int received = 0;
+    StateTransferSession.Chunk tail;
+    do {
+      tail = this.dispatcher.callRemoteMethod(donor, "fetchStateTailBackend",
+          new Object[] { header.getTransferId(), received, new HashMap<String, Long>(this.waitingOrigins) },
+          new Class[] { String.class, Integer.class, HashMap.class }, options);
+      if (tail == null) throw new IllegalStateException("transfer " + header.getTransferId() + " expired");
+      for (BackendOperation op : tail.getOperations()) {
+        if (!isApplied(op)) applyOperation(op, true);
+        this.journal.setLastSeq(Math.max(this.journal.getLastSeq(), op.getSeq()));
       }
-    } catch (Exception e) {
-      System.err.println("🆘 Backend replica auction list syncrhonization error - dispatcher exception:");
-      e.printStackTrace();
+      received += tail.getOperations().size();
+    } while (!tail.isLast());
+    this.dispatcher.callRemoteMethod(donor, "endStateTransferBackend",
+        new Object[] { header.getTransferId() }, new Class[] { String.class }, options);
+    return received;
+  }
+
+  /*
+   * Method for RPC (state transfer)
+   *
+   * Version of this replica's state, or null while it is joining itself.
+   */
+  public Long getStateVersionBackend() {
+    return isServing() ? this.journal.getLastSeq() : null;
+  }
+
+  /*
+   * Method for RPC (state transfer)
+   *
+   * Takes a consistent cut of the state for a joining replica. Users and
+   * listings are then pulled in chunks, everything else is in the header.
+   */
+  public StateTransferSession.Header beginStateTransferBackend() {
+    System.out.printf("📩 Backend request for beginStateTransfer() | total requests: %d\n", this.requestCount.incrementAndGet());
+    if (!isServing()) return null;
+    long now = System.currentTimeMillis();
+    this.transferSessions.values().removeIf(session -> now - session.getLastTouched() > this.STATE_TRANSFER_SESSION_EXPIRY);
+
+    StateTransferSession session;
+    this.stateLock.writeLock().lock();
+    try {
+      session = new StateTransferSession(UUID.randomUUID().toString(), copyState(), this.STATE_CHUNK_SIZE);
+      this.transferSessions.put(session.getTransferId(), session);
+    } finally {
+      this.stateLock.writeLock().unlock();
     }
+    return session.getHeader();
   }
 
-  /**
-   * Check (and synchronize with existing replicas, if needed)
-   * the state of the global double auction list.
+  /*
+   * Method for RPC (state transfer)
+   *
+   * Starts a delta transfer for a replica that last applied operation
+   * "seq" and, per frontend, the requests in "origins". Returns null if
+   * the operation history no longer covers the gap.
    */
-  private void syncDoubleAuctionListState() {
-    System.out.println("📩 Backend replica state: synchronizing the double auction list...\n");
+  public StateTransferSession.Header beginDeltaTransferBackend(Long seq, HashMap<String, Long> origins) {
+    System.out.printf("📩 Backend request for beginDeltaTransfer() | total requests: %d\n", this.requestCount.incrementAndGet());
+    if (!isServing()) return null;
+    StateTransferSession session;
+    this.stateLock.writeLock().lock();
     try {
-      RspList<HashMap<String, DoubleAuction>> doubleAuctionState =
-        this.dispatcher.callRemoteMethods(null, "getDoubleAuctionListState",
-        new Object[] {},
-        new Class[] {},
-        new RequestOptions(ResponseMode.GET_ALL, this.DISPATCHER_TIMEOUT));
-      HashMap<String, DoubleAuction> syncedDoubleAuctions = GroupUtils.matchAllReplicaResponses(doubleAuctionState);
-      if (syncedDoubleAuctions == null) {
-        this.doubleAuctionList = new HashMap<String, DoubleAuction>();
-      } else {
-        this.doubleAuctionList = syncedDoubleAuctions;
+      ArrayList<BackendOperation> missing = this.history.since(seq, origins);
+      if (missing == null) return null;
+      session = new StateTransferSession(UUID.randomUUID().toString(), this.journal.getLastSeq(), missing, this.STATE_CHUNK_SIZE);
+      this.transferSessions.put(session.getTransferId(), session);
+    } finally {
+      this.stateLock.writeLock().unlock();
+    }
+    return session.getHeader();
+  }
+
+  /*
+   * Method for RPC (state transfer)
+   */
+  public StateTransferSession.Chunk fetchStateChunkBackend(String transferId, Integer index) {
+    StateTransferSession session = this.transferSessions.get(transferId);
+    return (session == null) ? null : session.getChunk(index);
+  }
+
+  /*
+   * Method for RPC (state transfer)
+   *
+   * Operations applied since the cut, starting at "from". Waits (briefly)
+   * until the requests the joiner is holding back have been applied here,
+   * so the joiner does not miss the ones sent before it joined.
+   */
+  public StateTransferSession.Chunk fetchStateTailBackend(String transferId, Integer from, HashMap<String, Long> waitFor) {
+    StateTransferSession session = this.transferSessions.get(transferId);
+    if (session == null) return null;
+    long deadline = System.currentTimeMillis() + this.STATE_TRANSFER_TIMEOUT / 2;
+    while (System.currentTimeMillis() < deadline && waitFor.entrySet().stream().anyMatch(
+               origin -> this.appliedOrigins.getOrDefault(origin.getKey(), 0L) < origin.getValue())) {
+      try {
+        Thread.sleep(10);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        break;
       }
-    } catch (Exception e) {
-      System.err.println("🆘 Backend replica (double auction list) syncrhonization error - dispatcher exception:");
-      e.printStackTrace();
     }
+    return session.getTail(from);
   }
 
+  /*
+   * Method for RPC (state transfer)
+   */
+  public Boolean endStateTransferBackend(String transferId) {
+    return this.transferSessions.remove(transferId) != null;
+  }
 }
@@ -5,10 +5,13 @@ import java.rmi.registry.Registry;
 import java.rmi.server.UnicastRemoteObject;
 
 // Data structs
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.TreeMap;
 
 // Signature and Security
 import java.security.KeyFactory;
@@ -22,6 +25,7 @@ import javax.crypto.spec.SecretKeySpec;
 import java.nio.charset.StandardCharsets;
 
 // JGroups
+import org.jgroups.Address;
 import org.jgroups.JChannel;
 import org.jgroups.blocks.RequestOptions;
 import org.jgroups.blocks.ResponseMode;
@@ -30,22 +34,45 @@ import org.jgroups.util.RspList;
 
 
 // Misc imports
-import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 public class AuctionServerFrontend implements API {
 
   private HashMap<Integer, IAuctionSubscriber> subscriberList;
   private HashSet<String> userNames;
-  private Random random;
+  private final ConcurrentHashMap<Integer, String> userNameCache = new ConcurrentHashMap<Integer, String>();
 
   private PrivateKey privateKey;
   private PublicKey publicKey;
 
+  // Reads go to one replica, writes wait for a majority (see ConsistencyMode)
   private final int DISPATCHER_TIMEOUT = 1000;
   public final String SERVER_NAME = "LZSCC.311 auction server";
   private static Registry registry;
-  private JChannel groupChannel;
-  private RpcDispatcher dispatcher;
+
+  // One channel per backend shard (see ShardRing): listings and double
+  // auctions live on the shard of their item type, users on every shard
+  private final ShardRing shardRing = new ShardRing(GroupUtils.SHARD_COUNT);
+  private JChannel[] shardChannels;
+  private RpcDispatcher[] shardDispatchers;
+
+  // Concurrent placeBid() calls are sent to the backends in batches
+  private final long BID_BATCH_WINDOW_MICROS = System.getenv("BID_BATCH_WINDOW_MICROS") == null
+      ? 500 : Long.parseLong(System.getenv("BID_BATCH_WINDOW_MICROS"));
+  private final int BID_BATCH_SIZE = System.getenv("BID_BATCH_SIZE") == null
+      ? 128 : Integer.parseInt(System.getenv("BID_BATCH_SIZE"));
+  private BidCoalescer[] bidCoalescers;
+
+  // User and item ids come from blocks leased by the backends, item ids
+  // from the shard the item goes to (so its id tells the shard)
+  private final int ID_BLOCK_SIZE = System.getenv("ID_BLOCK_SIZE") == null
+      ? 100 : Integer.parseInt(System.getenv("ID_BLOCK_SIZE"));
+  private IdBlockAllocator userIds;
+  private IdBlockAllocator[] itemIds;
 
   public AuctionServerFrontend() {
     super();
@@ -54,15 +81,34 @@ public class AuctionServerFrontend implements API {
 
     this.publicKey = CryptoManager.loadPublicKey("../keys/server_auction_rsa.pub");
     this.privateKey = CryptoManager.loadPrivateKey("../keys/server_auction_rsa");
-    this.random = new Random();
-    this.groupChannel = GroupUtils.connect();
-
-    if (this.groupChannel == null) {
-      System.exit(1);
+    int shards = this.shardRing.getShardCount();
+    this.shardChannels = new JChannel[shards];
+    this.shardDispatchers = new RpcDispatcher[shards];
+    this.bidCoalescers = new BidCoalescer[shards];
+    for (int shard = 0; shard < shards; shard++) {
+      this.shardChannels[shard] = GroupUtils.connect(GroupUtils.FRONTEND_ROLE, GroupUtils.shardGroup(shard));
+      if (this.shardChannels[shard] == null) {
+        System.exit(1);
+      }
     }
     this.bind(this.SERVER_NAME);
-    this.dispatcher = new RpcDispatcher(this.groupChannel, this);
-    this.dispatcher.setMembershipListener(new MembershipListener());
+    for (int shard = 0; shard < shards; shard++) {
+      this.shardDispatchers[shard] = new RpcDispatcher(this.shardChannels[shard], this);
+      CompactMarshaller.install(this.shardDispatchers[shard]);
+      this.shardDispatchers[shard].setMembershipListener(new MembershipListener());
+      int target = shard;
+      this.bidCoalescers[shard] = new BidCoalescer(bids -> sendBids(target, bids),
+                                                   this.BID_BATCH_WINDOW_MICROS, this.BID_BATCH_SIZE);
+    }
+    startCallMarketClearing();
+    this.userIds = new IdBlockAllocator(IdBlockAllocator.USER_IDS, this.ID_BLOCK_SIZE, 1,
+                                        (kind, size) -> leaseIdBlock(0, kind, size));
+    this.itemIds = new IdBlockAllocator[shards];
+    for (int shard = 0; shard < shards; shard++) {
+      int target = shard;
+      this.itemIds[shard] = new IdBlockAllocator(IdBlockAllocator.ITEM_IDS, this.ID_BLOCK_SIZE, shards,
+                                                 (kind, size) -> leaseIdBlock(target, kind, size));
+    }
   }
 
   /*
@@ -114,19 +160,74 @@ public class AuctionServerFrontend implements API {
    */
   public void notifyDoubleAuctionUser(String notification, Integer userId) throws RemoteException {
     IAuctionSubscriber subscriber = this.subscriberList.get(userId);
+    // Subscribed to another frontend (or not at all)
+    if (subscriber == null) return;
     sendMessage(userId, subscriber, notification);
   }
 
   /*
-   * Sends double auction results to all participants
+   * Sends double auction results to the participants subscribed to this
+   * frontend: one message per user, with all of their fills. Messages
+   * are only written for those users.
    */
-  private void notifyAllDoubleAuctionUsers(HashMap<Integer, HashMap<Integer, String>> doubleAuctionResults) throws RemoteException {
-    for (HashMap<Integer, String> innerMap : doubleAuctionResults.values()) {
-      Map.Entry<Integer, String> entry = innerMap.entrySet().iterator().next();
-      notifyDoubleAuctionUser(entry.getValue(), entry.getKey());
+  private void notifyAllDoubleAuctionUsers(List<MatchEvent> doubleAuctionResults) throws RemoteException {
+    LinkedHashMap<Integer, StringBuilder> messages = new LinkedHashMap<Integer, StringBuilder>();
+    for (MatchEvent event : doubleAuctionResults) {
+      if (this.subscriberList.containsKey(event.getSellerId())) {
+        appendMessage(messages, event.getSellerId(), soldMessage(event));
+      }
+      if (this.subscriberList.containsKey(event.getBuyerId())) {
+        appendMessage(messages, event.getBuyerId(), boughtMessage(event));
+      }
+    }
+    for (Map.Entry<Integer, StringBuilder> message : messages.entrySet()) {
+      notifyDoubleAuctionUser(message.getValue().toString(), message.getKey());
     }
   }
 
+  private static void appendMessage(LinkedHashMap<Integer, StringBuilder> messages, Integer userId, String message) {
+    StringBuilder userMessages = messages.get(userId);
+    if (userMessages == null) {
+      messages.put(userId, new StringBuilder(message));
+    } else {
+      userMessages.append("\n").append(message);
+    }
+  }
+
+  private String soldMessage(MatchEvent event) {
+    return "> Your double auction item was sold: "
+           + event.getItemTitle()
+           + " (" + event.getItemType() + ")"
+           + " || ID: " + event.getItemId()
+           + "\n> Units: " + event.getUnits() + " (" + event.getSellerLeft() + " left)"
+           + "\n> Sold for: " + event.getPrice() + " EUR each"
+           + "\n> Sold to: " + userName(event.getBuyerId());
+  }
+
+  private String boughtMessage(MatchEvent event) {
+    return "> Your bid for "
+           + event.getItemTitle()
+           + " (" + event.getItemType() + ")"
+           + " was succesful"
+           + "\n> Units: " + event.getUnits() + " (" + event.getBuyerLeft() + " still wanted)"
+           + "\n> Bid: " + event.getBid() + " EUR"
+           + "\n> Paid: " + event.getPrice() + " EUR each"
+           + "\n> Seller: " + userName(event.getSellerId());
+  }
+
+  /*
+   * User names for notifications, fetched once per user
+   * (names never change)
+   */
+  private String userName(Integer userId) {
+    String userName = this.userNameCache.get(userId);
+    if (userName != null) return userName;
+    AuctionUser user = getUser(userId);
+    if (user == null) return "user " + userId;
+    this.userNameCache.put(userId, user.getUserName());
+    return user.getUserName();
+  }
+
   /*
    * Method for RMI
    *
@@ -154,12 +255,7 @@ public class AuctionServerFrontend implements API {
    * Checks for an existing entry among types of items
    */
   public Boolean itemTypeExists(String typeStr) throws RemoteException {
-    String lowerCaseString = typeStr.toLowerCase();
-    for (AuctionItemTypeEnum type : AuctionItemTypeEnum.values()) {
-      if (type.getValue().toLowerCase().equals(lowerCaseString))
-        return true;
-    }
-    return false;
+    return AuctionItemTypeEnum.fromString(typeStr) != null;
   }
 
   /*
@@ -178,39 +274,87 @@ public class AuctionServerFrontend implements API {
     return formattedString;
   }
 
+  /*
+   * Shard handling a request about an item type
+   */
+  private RpcDispatcher dispatcherForType(String itemType) {
+    return this.shardDispatchers[this.shardRing.shardFor(itemType)];
+  }
+
+  /*
+   * Shard handling a request about a listing, from its id
+   * @return null if there is no id (see unknownListing())
+   */
+  private RpcDispatcher dispatcherForListing(Integer listingId) {
+    Integer shard = this.shardRing.shardForItem(listingId);
+    return (shard == null) ? null : this.shardDispatchers[shard];
+  }
+
+  /*
+   * Answer to a request without a listing id, without sending it to any
+   * shard (the same answer the backends give for a missing listing)
+   */
+  private <T> T unknownListing(String method, Integer listingId, T answer) {
+    System.err.printf("🆘 [FRONTEND] %s(): unknown listing %d\n", method, listingId);
+    return answer;
+  }
+
+  /*
+   * Leases a block of ids from the oldest backend replica of a shard
+   * (user ids all come from the first shard)
+   * @return first id of the block, or null if none could be leased
+   */
+  private Long leaseIdBlock(int shard, String kind, Integer size) {
+    RpcDispatcher dispatcher = this.shardDispatchers[shard];
+    List<Address> backends = GroupUtils.backendMembers(dispatcher);
+    if (backends.isEmpty()) return null;
+    try {
+      return dispatcher.callRemoteMethod(backends.get(0), "leaseIdBlockBackend",
+                                              new Object[] { kind, size },
+                                              new Class[] { String.class, Integer.class },
+                                              new RequestOptions(ResponseMode.GET_FIRST, this.DISPATCHER_TIMEOUT));
+    } catch (Exception e) {
+      System.err.println("🆘 [FRONTEND] leaseIdBlock() dispatcher exception:");
+      e.printStackTrace();
+    }
+    return null;
+  }
+
   /*
    * Method for RMI
    *
    * Creates and adds user ID to server's user list.
-   * User random ID is created ensuring mutex.
+   * The ID comes from this frontend's leased block, so it is unique.
+   * Every shard gets the user, since bids on any item type need it.
    */
   public Integer addUser(String userName, byte[] userPublicKeyEncoded) throws RemoteException {
     System.out.println("📩 addUser() function request via rmi\n");
-    Integer userId = random.nextInt(1000);
-    while (true) {
-      userId = random.nextInt(1000);
-      if (!GroupUtils.executeBackendReplicaCall(
-                                              "[FRONTEND]",
-                                              "proposedIdExistsBackend",
-                                              Boolean.TRUE,
-                                              new Object[] { userId },
-                                              new Class[] { Integer.class },
-                                              this.dispatcher,
-                                              this.DISPATCHER_TIMEOUT,
-                                              false
-        )) { break; }
-    }
-    System.out.printf("✅ ID validated, proceding to add user (%d, %s) to the database\n", userId, userName);
-    return GroupUtils.executeBackendReplicaCall(
+    Integer userId = this.userIds.next();
+    if (userId == null) {
+      System.err.println("🆘 [FRONTEND] addUser(): no user id could be leased");
+      return null;
+    }
+    System.out.printf("✅ ID leased, proceding to add user (%d, %s) to the database\n", userId, userName);
+    ArrayList<CompletableFuture<Integer>> shardResults = new ArrayList<CompletableFuture<Integer>>();
+    for (RpcDispatcher dispatcher : this.shardDispatchers) {
+      shardResults.add(GroupUtils.executeBackendReplicaCallAsync(
                                         "[FRONTEND]",
                                         "addUserBackend",
                                         Integer.valueOf(5),
                                         new Object[] {  userId, userName, userPublicKeyEncoded  },
                                         new Class[] {  Integer.class, String.class, byte[].class  },
-                                        this.dispatcher,
+                                        dispatcher,
                                         this.DISPATCHER_TIMEOUT,
-                                        false
-    );
+                                        ConsistencyMode.MAJORITY
+      ));
+    }
+    for (CompletableFuture<Integer> shardResult : shardResults) {
+      if (!userId.equals(shardResult.exceptionally(error -> null).join())) {
+        System.err.printf("🆘 [FRONTEND] addUser(): user %d was not added on every shard\n", userId);
+        return null;
+      }
+    }
+    return userId;
   }
 
   /*
@@ -219,15 +363,30 @@ public class AuctionServerFrontend implements API {
    * Adds an auction listing to a list of double auctions by item type.
    */
   public void addBuyerForDoubleAuction(Integer userId, String itemType, Float bid) throws RemoteException {
-    HashMap<Integer, HashMap<Integer, String>> response = GroupUtils.executeBackendReplicaCall(
+    addBuyerForDoubleAuction(userId, itemType, bid, 1);
+  }
+
+  /*
+   * Method for RMI
+   *
+   * Bids for "quantity" units in one order, filled by as many
+   * sellers as it takes.
+   */
+  public void addBuyerForDoubleAuction(Integer userId, String itemType, Float bid, Integer quantity)
+      throws RemoteException {
+    if (quantity == null || quantity < 1) {
+      System.err.println("🆘 [FRONTEND] addBuyerForDoubleAuction(): quantity must be at least 1");
+      return;
+    }
+    ArrayList<MatchEvent> response = GroupUtils.executeBackendReplicaCall(
                                         "[FRONTEND]",
                                         "addBuyerForDoubleAuctionBackend",
-                                        new HashMap<Integer, HashMap<Integer, String>>(),
-                                        new Object[] { userId, itemType, bid },
-                                        new Class[] { Integer.class, String.class, Float.class },
-                                        this.dispatcher,
+                                        new ArrayList<MatchEvent>(),
+                                        new Object[] { userId, itemType, bid, quantity },
+                                        new Class[] { Integer.class, String.class, Float.class, Integer.class },
+                                        dispatcherForType(itemType),
                                         this.DISPATCHER_TIMEOUT,
-                                        true
+                                        ConsistencyMode.MAJORITY
     );
     if (response != null && !response.isEmpty()) {
       notifyAllDoubleAuctionUsers(response);
@@ -243,24 +402,101 @@ public class AuctionServerFrontend implements API {
                                         String itemType, String itemDesc,
                                         Integer itemCond, Float resPrice,
                                         Float startPrice) throws RemoteException {
-    HashMap<Integer, HashMap<Integer, String>> response = GroupUtils.executeBackendReplicaCall(
+    addSellerForDoubleAuction(userId, itemName, itemType, itemDesc, itemCond, resPrice, startPrice, 1);
+  }
+
+  /*
+   * Method for RMI
+   *
+   * Sells "quantity" identical items in one order, to as many
+   * buyers as it takes.
+   */
+  public void addSellerForDoubleAuction(Integer userId, String itemName,
+                                        String itemType, String itemDesc,
+                                        Integer itemCond, Float resPrice,
+                                        Float startPrice, Integer quantity) throws RemoteException {
+    if (quantity == null || quantity < 1) {
+      System.err.println("🆘 [FRONTEND] addSellerForDoubleAuction(): quantity must be at least 1");
+      return;
+    }
+    int shard = this.shardRing.shardFor(itemType);
+    Integer itemId = this.itemIds[shard].next();
+    if (itemId == null) {
+      System.err.println("🆘 [FRONTEND] addSellerForDoubleAuction(): no item id could be leased");
+      return;
+    }
+    ArrayList<MatchEvent> response = GroupUtils.executeBackendReplicaCall(
                                         "[FRONTEND]",
                                         "addSellerForDoubleAuctionBackend",
-                                        new HashMap<Integer, HashMap<Integer, String>>(),
-                                        new Object[] {  userId, itemName, itemType, itemDesc, itemCond, resPrice, startPrice  },
-                                        new Class[] { Integer.class, String.class,
+                                        new ArrayList<MatchEvent>(),
+                                        new Object[] {  itemId, userId, itemName, itemType, itemDesc, itemCond, resPrice, startPrice, quantity  },
+                                        new Class[] { Integer.class, Integer.class, String.class,
                                                       String.class, String.class,
                                                       Integer.class, Float.class,
-                                                      Float.class },
-                                        this.dispatcher,
+                                                      Float.class, Integer.class },
+                                        this.shardDispatchers[shard],
                                         this.DISPATCHER_TIMEOUT,
-                                        true
+                                        ConsistencyMode.MAJORITY
     );
     if (response != null && !response.isEmpty()) {
       notifyAllDoubleAuctionUsers(response);
     }
   }
 
+  /*
+   * Clears every call market (see DoubleAuction.clear()) on a fixed tick.
+   * Ticks are numbered from the wall clock, so all frontends send the
+   * same tick numbers and the backends clear each tick only once; every
+   * frontend gets the tick's fills back and notifies its own users.
+   */
+  private void startCallMarketClearing() {
+    if (DoubleAuction.CALL_MARKET_TYPES.isEmpty()) return;
+    ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(task -> {
+      Thread thread = new Thread(task, "call-market-clearing");
+      thread.setDaemon(true);
+      return thread;
+    });
+    long interval = TimeUnit.SECONDS.toMillis(DoubleAuction.CALL_MARKET_INTERVAL_SECONDS);
+    scheduler.scheduleAtFixedRate(this::clearCallMarkets, interval - System.currentTimeMillis() % interval,
+                                  interval, TimeUnit.MILLISECONDS);
+  }
+
+  /*
+   * One request per shard, with all of its call market types: the shard
+   * clears them in parallel, and shards clear at the same time
+   */
+  private void clearCallMarkets() {
+    long tick = System.currentTimeMillis() / TimeUnit.SECONDS.toMillis(DoubleAuction.CALL_MARKET_INTERVAL_SECONDS);
+    ArrayList<ArrayList<String>> shardTypes = new ArrayList<ArrayList<String>>();
+    for (int shard = 0; shard < this.shardDispatchers.length; shard++) { shardTypes.add(new ArrayList<String>()); }
+    for (String itemType : DoubleAuction.CALL_MARKET_TYPES) {
+      shardTypes.get(this.shardRing.shardFor(itemType)).add(itemType);
+    }
+    ArrayList<CompletableFuture<ArrayList<MatchEvent>>> shardResults = new ArrayList<CompletableFuture<ArrayList<MatchEvent>>>();
+    for (int shard = 0; shard < this.shardDispatchers.length; shard++) {
+      if (shardTypes.get(shard).isEmpty()) continue;
+      shardResults.add(GroupUtils.executeBackendReplicaCallAsync(
+                                        "[FRONTEND]",
+                                        "clearCallMarketsBackend",
+                                        new ArrayList<MatchEvent>(),
+                                        new Object[] { shardTypes.get(shard), tick },
+                                        new Class[] { ArrayList.class, Long.class },
+                                        this.shardDispatchers[shard],
+                                        this.DISPATCHER_TIMEOUT,
+                                        ConsistencyMode.MAJORITY
+      ));
+    }
+    for (CompletableFuture<ArrayList<MatchEvent>> shardResult : shardResults) {
+      try {
+        ArrayList<MatchEvent> response = shardResult.exceptionally(error -> null).join();
+        if (response != null && !response.isEmpty()) notifyAllDoubleAuctionUsers(response);
+      } catch (Exception e) {
+        System.err.println("🆘 [FRONTEND] clearCallMarkets() notification exception:");
+        e.printStackTrace();
+      }
+    }
+  }
+
   /*
    * Method for RMI
    *
@@ -268,15 +504,17 @@ public class AuctionServerFrontend implements API {
    */
   public AuctionListing closeAuction(Integer listingId, String itemType,
                                      Integer userId) throws RemoteException {
+    RpcDispatcher dispatcher = dispatcherForListing(listingId);
+    if (dispatcher == null) return unknownListing("closeAuction", listingId, null);
     return GroupUtils.executeBackendReplicaCall(
                                         "[FRONTEND]",
                                         "closeAuctionBackend",
                                         new AuctionListing(),
                                         new Object[] { listingId, itemType, userId },
                                         new Class[] { Integer.class, String.class, Integer.class },
-                                        this.dispatcher,
+                                        dispatcher,
                                         this.DISPATCHER_TIMEOUT,
-                                        false
+                                        ConsistencyMode.MAJORITY
     );
   }
 
@@ -289,19 +527,26 @@ public class AuctionServerFrontend implements API {
       Integer userId, String itName, String itType, String itDesc,
       Integer itCond, Float resPrice, Float startPrice
   ) throws RemoteException {
-    return GroupUtils.executeBackendReplicaCall(
+    int shard = this.shardRing.shardFor(itType);
+    Integer itemId = this.itemIds[shard].next();
+    if (itemId == null) {
+      System.err.println("🆘 [FRONTEND] openAuction(): no item id could be leased");
+      return null;
+    }
+    AuctionListing listing = GroupUtils.executeBackendReplicaCall(
                                         "[FRONTEND]",
                                         "openAuctionBackend",
                                         new AuctionListing(),
-                                        new Object[] {  userId, itName, itType, itDesc, itCond, resPrice, startPrice  },
-                                        new Class[] { Integer.class, String.class,
+                                        new Object[] {  itemId, userId, itName, itType, itDesc, itCond, resPrice, startPrice  },
+                                        new Class[] { Integer.class, Integer.class, String.class,
                                                       String.class, String.class,
                                                       Integer.class, Float.class,
                                                       Float.class },
-                                        this.dispatcher,
+                                        this.shardDispatchers[shard],
                                         this.DISPATCHER_TIMEOUT,
-                                        false
+                                        ConsistencyMode.MAJORITY
     );
+    return listing;
   }
 
   /*
@@ -317,9 +562,34 @@ public class AuctionServerFrontend implements API {
                                         new String(),
                                         new Object[] { type },
                                         new Class[] { String.class },
-                                        this.dispatcher,
+                                        dispatcherForType(type),
                                         this.DISPATCHER_TIMEOUT,
-                                        false
+                                        ConsistencyMode.ANY
+    );
+  }
+
+  /*
+   * Method for RMI
+   *
+   * Returns one price-ordered page of a category.
+   * Pass the previous page's cursor (or null) to continue browsing.
+   */
+  public AuctionListingPage retrieveItemsByTypePage(String type, String cursor, Integer pageSize) throws RemoteException {
+    if (pageSize == null || pageSize < 1) {
+      throw new RemoteException("Page size must be at least 1");
+    }
+    if (cursor != null && ListingSortKey.fromCursor(cursor) == null) {
+      throw new RemoteException("Malformed page cursor: " + cursor);
+    }
+    return GroupUtils.executeBackendReplicaCall(
+                                        "[FRONTEND]",
+                                        "retrieveItemsByTypePageBackend",
+                                        new AuctionListingPage(),
+                                        new Object[] { type, cursor, pageSize },
+                                        new Class[] { String.class, String.class, Integer.class },
+                                        dispatcherForType(type),
+                                        this.DISPATCHER_TIMEOUT,
+                                        ConsistencyMode.ANY
     );
   }
 
@@ -329,15 +599,17 @@ public class AuctionServerFrontend implements API {
    * Return details from a requested item by ID.
    */
   public AuctionItem getSpec(Integer itemId, String clientId) throws RemoteException {
+    RpcDispatcher dispatcher = dispatcherForListing(itemId);
+    if (dispatcher == null) return unknownListing("getSpec", itemId, null);
     return GroupUtils.executeBackendReplicaCall(
                                         "[FRONTEND]",
                                         "getSpecBackend",
                                         new AuctionItem(),
                                         new Object[] {  itemId, clientId  },
                                         new Class[] {  Integer.class, String.class  },
-                                        this.dispatcher,
+                                        dispatcher,
                                         this.DISPATCHER_TIMEOUT,
-                                        false
+                                        ConsistencyMode.ANY
     );
   }
 
@@ -348,16 +620,61 @@ public class AuctionServerFrontend implements API {
    * @return Boolean: whether the bid was placed succesfully (auction ID exists)
    */
   public Boolean placeBid(Integer userId, Integer auctionListingId, Float bid) throws RemoteException {
-    return GroupUtils.executeBackendReplicaCall(
+    Integer shard = this.shardRing.shardForItem(auctionListingId);
+    if (shard == null) return unknownListing("placeBid", auctionListingId, Boolean.FALSE);
+    return this.bidCoalescers[shard].submit(new BidRequest(userId, auctionListingId, bid)).join();
+  }
+
+  /*
+   * Method for RMI
+   *
+   * Place several bids in one request.
+   * @return one result per bid, as placeBid() returns it (null if the
+   *         backends did not answer)
+   */
+  public List<Boolean> placeBids(List<BidRequest> bids) throws RemoteException {
+    if (this.shardDispatchers.length == 1) return sendBids(0, new ArrayList<BidRequest>(bids)).join();
+
+    // One request per shard, results put back in the order of the bids;
+    // bids without a listing id fail right away
+    ArrayList<Boolean> results = new ArrayList<Boolean>();
+    HashMap<Integer, ArrayList<Integer>> positions = new HashMap<Integer, ArrayList<Integer>>();
+    for (int i = 0; i < bids.size(); i++) {
+      Integer listingId = bids.get(i).getListingId();
+      Integer shard = this.shardRing.shardForItem(listingId);
+      results.add((shard == null) ? unknownListing("placeBids", listingId, Boolean.FALSE) : null);
+      if (shard != null) positions.computeIfAbsent(shard, key -> new ArrayList<Integer>()).add(i);
+    }
+    HashMap<Integer, CompletableFuture<ArrayList<Boolean>>> shardResults =
+        new HashMap<Integer, CompletableFuture<ArrayList<Boolean>>>();
+    for (Map.Entry<Integer, ArrayList<Integer>> shard : positions.entrySet()) {
+      ArrayList<BidRequest> shardBids = new ArrayList<BidRequest>();
+      for (Integer position : shard.getValue()) { shardBids.add(bids.get(position)); }
+      shardResults.put(shard.getKey(), sendBids(shard.getKey(), shardBids));
+    }
+    for (Map.Entry<Integer, ArrayList<Integer>> shard : positions.entrySet()) {
+      ArrayList<Boolean> shardResult = shardResults.get(shard.getKey()).join();
+      if (shardResult == null) continue;
+      for (int i = 0; i < shardResult.size(); i++) { results.set(shard.getValue().get(i), shardResult.get(i)); }
+    }
+    return results;
+  }
+
+  private CompletableFuture<ArrayList<Boolean>> sendBids(int shard, ArrayList<BidRequest> bids) {
+    return GroupUtils.executeBackendReplicaCallAsync(
                                         "[FRONTEND]",
-                                        "placeBidBackend",
-                                        Boolean.TRUE,
-                                        new Object[] { userId, auctionListingId, bid },
-                                        new Class[] { Integer.class, Integer.class, Float.class },
-                                        this.dispatcher,
+                                        "placeBidsBackend",
+                                        new ArrayList<Boolean>(),
+                                        new Object[] { bids },
+                                        new Class[] { ArrayList.class },
+                                        this.shardDispatchers[shard],
                                         this.DISPATCHER_TIMEOUT,
-                                        false
-    );
+                                        ConsistencyMode.MAJORITY
+    ).exceptionally(error -> {
+      System.err.println("🆘 [FRONTEND] placeBids() dispatcher exception:");
+      error.printStackTrace();
+      return null;
+    });
   }
 
   /*
@@ -366,15 +683,17 @@ public class AuctionServerFrontend implements API {
    * Checks whether an id is amongst existing auctions.
    */
   public Boolean idMatchesExistingItem(Integer id) throws RemoteException {
+    RpcDispatcher dispatcher = dispatcherForListing(id);
+    if (dispatcher == null) return unknownListing("idMatchesExistingItem", id, Boolean.FALSE);
     return GroupUtils.executeBackendReplicaCall(
                                         "[FRONTEND]",
                                         "idMatchesExistingItemBackend",
                                         Boolean.TRUE,
                                         new Object[] { id },
                                         new Class[] { Integer.class },
-                                        this.dispatcher,
+                                        dispatcher,
                                         this.DISPATCHER_TIMEOUT,
-                                        false
+                                        ConsistencyMode.ANY
     );
   }
 
@@ -385,15 +704,17 @@ public class AuctionServerFrontend implements API {
    */
   public Boolean isBidPriceAcceptable(Integer listingId, Float price)
       throws RemoteException {
+    RpcDispatcher dispatcher = dispatcherForListing(listingId);
+    if (dispatcher == null) return unknownListing("isBidPriceAcceptable", listingId, Boolean.TRUE);
     return GroupUtils.executeBackendReplicaCall(
                                         "[FRONTEND]",
                                         "isBidPriceAcceptableBackend",
                                         Boolean.TRUE,
                                         new Object[] { listingId, price },
                                         new Class[] { Integer.class, Float.class },
-                                        this.dispatcher,
+                                        dispatcher,
                                         this.DISPATCHER_TIMEOUT,
-                                        false
+                                        ConsistencyMode.ANY
     );
   }
 
@@ -401,18 +722,42 @@ public class AuctionServerFrontend implements API {
    * Method for RMI
    *
    * Sends complete list of auctioned items (forward auction)
+   * With several shards, their categories are merged into one list.
    */
   public String getAuctionedItems() throws RemoteException {
-    return GroupUtils.executeBackendReplicaCall(
+    if (this.shardDispatchers.length == 1) {
+      return GroupUtils.executeBackendReplicaCall(
                                         "[FRONTEND]",
                                         "getAuctionedItemsBackend",
                                         new String(),
                                         new Object[] {},
                                         new Class[] {},
-                                        this.dispatcher,
+                                        this.shardDispatchers[0],
                                         this.DISPATCHER_TIMEOUT,
-                                        false
-    );
+                                        ConsistencyMode.ANY
+      );
+    }
+    ArrayList<CompletableFuture<HashMap<String, String>>> shardResults =
+        new ArrayList<CompletableFuture<HashMap<String, String>>>();
+    for (RpcDispatcher dispatcher : this.shardDispatchers) {
+      shardResults.add(GroupUtils.executeBackendReplicaCallAsync(
+                                        "[FRONTEND]",
+                                        "getAuctionedCategoriesBackend",
+                                        new HashMap<String, String>(),
+                                        new Object[] {},
+                                        new Class[] {},
+                                        dispatcher,
+                                        this.DISPATCHER_TIMEOUT,
+                                        ConsistencyMode.ANY
+      ));
+    }
+    TreeMap<String, String> categories = new TreeMap<String, String>();
+    for (CompletableFuture<HashMap<String, String>> shardResult : shardResults) {
+      HashMap<String, String> shardCategories = shardResult.exceptionally(error -> null).join();
+      if (shardCategories != null) categories.putAll(shardCategories);
+    }
+    if (categories.isEmpty()) return null;
+    return AuctionServerBackend.frameAuctionedItems(categories.values());
   }
 
 
@@ -426,9 +771,9 @@ public class AuctionServerFrontend implements API {
                                         new AuctionUser(),
                                         new Object[] { userId },
                                         new Class[] {Integer.class },
-                                        this.dispatcher,
+                                        this.shardDispatchers[0],
                                         this.DISPATCHER_TIMEOUT,
-                                        false
+                                        ConsistencyMode.ANY
     );
   }
 
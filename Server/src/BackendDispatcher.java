@@ -0,0 +1,113 @@
+import org.jgroups.Address;
+import org.jgroups.Channel;
+import org.jgroups.Message;
+import org.jgroups.blocks.Response;
+import org.jgroups.blocks.RpcDispatcher;
+import org.jgroups.conf.ClassConfigurator;
+import org.jgroups.protocols.SEQUENCER;
+import org.jgroups.util.UUID;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.LongPredicate;
+
+public class BackendDispatcher extends RpcDispatcher {
+
+  private static final short SEQUENCER_ID = ClassConfigurator.getProtocolId(SEQUENCER.class);
+
+  // Origin of the request being handled by the current thread
+  private static final ThreadLocal<String> currentSender = new ThreadLocal<String>();
+  private static final ThreadLocal<Long> currentSeqno = new ThreadLocal<Long>();
+
+  // WAL sequence number the current request's reply has to wait for
+  private static final ThreadLocal<Long> replyAfterSeq = new ThreadLocal<Long>();
+
+  private final LongPredicate awaitDurable;
+  private final ExecutorService replies;
+
+  /**
+   * RpcDispatcher that remembers where each request came from
+   *
+   * Multicasts go through SEQUENCER (see GroupUtils.connect()), which
+   * numbers them per sender and delivers them to every member in the same
+   * total order, one at a time. (sender, seqno) therefore names a request
+   * the same way on every replica, and every replica applies writes in
+   * the same order. State transfer relies on this to tell which requests
+   * a donor's copy already contains.
+   *
+   * Requests are applied on the delivery thread, in that order, but their
+   * replies wait for the WAL on a separate thread (awaitDurable), so the
+   * next request does not wait for the previous one's fsync. A request
+   * whose operation cannot be made durable gets an error instead.
+   */
+  public BackendDispatcher(Channel channel, Object serverObject, LongPredicate awaitDurable) {
+    super(channel, serverObject);
+    CompactMarshaller.install(this);
+    this.awaitDurable = awaitDurable;
+    this.replies = Executors.newCachedThreadPool(task -> {
+      Thread thread = new Thread(task, "backend-reply");
+      thread.setDaemon(true);
+      return thread;
+    });
+    asyncDispatching(true);
+  }
+
+  @Override
+  public void handle(Message req, Response response) throws Exception {
+    SEQUENCER.SequencerHeader header = (SEQUENCER.SequencerHeader) req.getHeader(SEQUENCER_ID);
+    currentSender.set(addressKey(req.getSrc()));
+    currentSeqno.set((header == null) ? -1L : header.getSeqno());
+    replyAfterSeq.set(0L);
+    Object result;
+    long durableSeq;
+    try {
+      result = super.handle(req);
+    } catch (Throwable t) {
+      if (response != null) response.send(t, true);
+      return;
+    } finally {
+      durableSeq = replyAfterSeq.get();
+      currentSender.remove();
+      currentSeqno.remove();
+      replyAfterSeq.remove();
+    }
+    if (response == null) return;
+    if (durableSeq <= 0) {
+      response.send(result, false);
+      return;
+    }
+    this.replies.execute(() -> {
+      if (this.awaitDurable.test(durableSeq)) {
+        response.send(result, false);
+      } else {
+        response.send(new IllegalStateException("Write-ahead log failed, operation " + durableSeq + " is not durable"), true);
+      }
+    });
+  }
+
+  /*
+   * Tags an operation with the request currently being handled
+   * (no-op outside of a multicast request, e.g. local calls)
+   */
+  public static void tagOrigin(BackendOperation op) {
+    Long seqno = currentSeqno.get();
+    if (seqno != null) op.setOrigin(currentSender.get(), seqno);
+  }
+
+  /*
+   * Holds the reply to the current request until the WAL has "seq" on
+   * disk. Returns false outside of a request (e.g. local calls), where
+   * the caller has to wait itself.
+   */
+  public static boolean replyWhenDurable(long seq) {
+    Long pending = replyAfterSeq.get();
+    if (pending == null) return false;
+    replyAfterSeq.set(Math.max(pending, seq));
+    return true;
+  }
+
+  public static String addressKey(Address address) {
+    if (address == null) return null;
+    return (address instanceof UUID) ? ((UUID) address).toStringLong() : address.toString();
+  }
+}
@@ -0,0 +1,326 @@
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.CRC32;
+
+public class BackendJournal {
+
+  private static final String SEGMENT_PREFIX = "wal-";
+  private static final String SEGMENT_SUFFIX = ".log";
+  // Larger record lengths can only come from a corrupt header
+  private static final int MAX_RECORD_BYTES = 16 * 1024 * 1024;
+
+  private final File directory;
+  private FileChannel segment;
+  private FileLock directoryLock;
+  private Thread flusher;
+  private volatile boolean closed;
+  // A write or fsync failed: later operations never become durable
+  private volatile boolean failed;
+
+  // Guarded by "this"
+  private long lastSeq;
+  private long durableSeq;
+  private long pendingSeq;
+  private final ByteArrayOutputStream pending = new ByteArrayOutputStream();
+  private final DataOutputStream pendingOut = new DataOutputStream(this.pending);
+  private final ByteArrayOutputStream scratch = new ByteArrayOutputStream();
+  private final DataOutputStream scratchOut = new DataOutputStream(this.scratch);
+  private final CRC32 crc = new CRC32();
+
+  // Serialises writes to the segment files
+  private final Object flushLock = new Object();
+
+  /**
+   * Write-ahead log of the backend's state-changing operations
+   *
+   * Operations get a sequence number and are buffered by append(). A
+   * background thread writes and fsyncs everything buffered so far in one
+   * go (group commit), so concurrent requests share a single fsync.
+   * Callers then wait with awaitDurable() before replying.
+   *
+   * The log is split into segment files named after their first sequence
+   * number. A snapshot makes the segments before it redundant (see
+   * rollover() and truncateBefore()).
+   *
+   * Without a directory the journal only numbers operations.
+   */
+  private BackendJournal(File directory) {
+    this.directory = directory;
+    this.closed = (directory == null);
+  }
+
+  /**
+   * Journal in the "WAL_DIR" env var directory, or a disabled journal
+   * when unset. Each replica needs its own directory.
+   */
+  public static BackendJournal fromEnvironment() {
+    String dir = System.getenv("WAL_DIR");
+    if (dir == null) return new BackendJournal(null);
+    try {
+      BackendJournal journal = new BackendJournal(new File(dir));
+      journal.lockDirectory();
+      System.out.printf("✅ write-ahead log enabled in: %s\n", dir);
+      return journal;
+    } catch (Exception e) {
+      System.err.printf("🆘 could not open write-ahead log in %s, running without it\n", dir);
+      e.printStackTrace();
+      return new BackendJournal(null);
+    }
+  }
+
+  public boolean isEnabled() { return this.directory != null; }
+
+  public File getDirectory() { return this.directory; }
+
+  public synchronized long getLastSeq() { return this.lastSeq; }
+
+  /*
+   * Sequence number reached after restoring state from elsewhere
+   * (snapshot, WAL replay)
+   */
+  public synchronized void setLastSeq(long seq) {
+    this.lastSeq = seq;
+    this.durableSeq = Math.max(this.durableSeq, seq);
+    this.pendingSeq = Math.max(this.pendingSeq, seq);
+  }
+
+  /*
+   * Numbers an operation and buffers it for the next group commit.
+   * Called while holding the lock that orders the operation against
+   * conflicting ones, so the log keeps their order.
+   */
+  public synchronized long append(BackendOperation op) {
+    op.setSeq(++this.lastSeq);
+    if (this.closed) return op.getSeq();
+    try {
+      this.scratch.reset();
+      op.writeTo(this.scratchOut);
+      this.crc.reset();
+      this.crc.update(this.scratch.toByteArray());
+      this.pendingOut.writeInt(this.scratch.size());
+      this.pendingOut.writeInt((int) this.crc.getValue());
+      this.scratch.writeTo(this.pendingOut);
+      this.pendingSeq = op.getSeq();
+      notifyAll();
+    } catch (IOException e) {
+      System.err.println("🆘 Write-ahead log error - could not encode operation " + op);
+      e.printStackTrace();
+    }
+    return op.getSeq();
+  }
+
+  /*
+   * Blocks until the operation with the given sequence number is on disk
+   * @return false if it never will be (the log failed, or the wait was
+   * interrupted); true once it is, or right away without a log
+   */
+  public synchronized boolean awaitDurable(long seq) {
+    while (this.durableSeq < seq && !this.closed) {
+      try {
+        wait();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        return false;
+      }
+    }
+    return this.durableSeq >= seq || !this.failed;
+  }
+
+  /*
+   * Writes and fsyncs whatever has been buffered
+   */
+  public void flush() {
+    synchronized (this.flushLock) {
+      byte[] batch;
+      long batchSeq;
+      synchronized (this) {
+        if (this.pending.size() == 0) return;
+        batch = this.pending.toByteArray();
+        batchSeq = this.pendingSeq;
+        this.pending.reset();
+      }
+      try {
+        ByteBuffer buffer = ByteBuffer.wrap(batch);
+        while (buffer.hasRemaining()) { this.segment.write(buffer); }
+        this.segment.force(false);
+        synchronized (this) {
+          this.durableSeq = Math.max(this.durableSeq, batchSeq);
+          notifyAll();
+        }
+      } catch (IOException e) {
+        System.err.println("🆘 Write-ahead log error - could not write to disk, failing further writes:");
+        e.printStackTrace();
+        synchronized (this) {
+          this.failed = true;
+          this.closed = true;
+          notifyAll();
+        }
+      }
+    }
+  }
+
+  /*
+   * Reads back every intact operation after "afterSeq" and opens a fresh
+   * segment for new appends. A torn record at the end of the log (crash
+   * mid-write) is cut off.
+   */
+  public List<BackendOperation> recover(long afterSeq) throws IOException {
+    ArrayList<BackendOperation> operations = new ArrayList<BackendOperation>();
+    boolean torn = false;
+    for (File file : segmentFiles()) {
+      if (torn) {
+        file.delete();
+        continue;
+      }
+      try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+        long validBytes = readSegment(Channels.newInputStream(channel), afterSeq, operations);
+        if (validBytes < channel.size()) {
+          System.err.printf("🆘 Write-ahead log: dropping torn tail of %s\n", file.getName());
+          channel.truncate(validBytes);
+          torn = true;
+        }
+      }
+    }
+    long recoveredSeq = operations.isEmpty() ? afterSeq : operations.get(operations.size() - 1).getSeq();
+    setLastSeq(Math.max(afterSeq, recoveredSeq));
+    rollover();
+    return operations;
+  }
+
+  /*
+   * Starts a new segment after the last appended operation. Called while
+   * writes are paused, so every earlier segment ends at getLastSeq().
+   */
+  public void rollover() throws IOException {
+    if (!isEnabled()) return;
+    flush();
+    synchronized (this.flushLock) {
+      if (this.segment != null) this.segment.close();
+      File file = new File(this.directory, segmentName(getLastSeq() + 1));
+      this.segment = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+                                      StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+    }
+    startFlusher();
+  }
+
+  /*
+   * Discards the log and continues numbering from "seq", once the
+   * replica's state was replaced by a full transfer from another replica
+   */
+  public void reset(long seq) throws IOException {
+    synchronized (this.flushLock) {
+      synchronized (this) {
+        this.pending.reset();
+        this.lastSeq = seq;
+        this.durableSeq = seq;
+        this.pendingSeq = seq;
+      }
+      if (isEnabled()) {
+        for (File file : segmentFiles()) { file.delete(); }
+      }
+    }
+    rollover();
+  }
+
+  /*
+   * Deletes the segments made redundant by a snapshot at "snapshotSeq"
+   */
+  public void truncateBefore(long snapshotSeq) {
+    if (!isEnabled()) return;
+    synchronized (this.flushLock) {
+      for (File file : segmentFiles()) {
+        if (segmentStart(file) <= snapshotSeq) file.delete();
+      }
+    }
+  }
+
+  private long readSegment(InputStream stream, long afterSeq, List<BackendOperation> operations) throws IOException {
+    DataInputStream in = new DataInputStream(new BufferedInputStream(stream));
+    CRC32 checksum = new CRC32();
+    long validBytes = 0;
+    while (true) {
+      try {
+        int length = in.readInt();
+        int expectedCrc = in.readInt();
+        if (length < 0 || length > MAX_RECORD_BYTES) return validBytes;
+        byte[] record = new byte[length];
+        in.readFully(record);
+        checksum.reset();
+        checksum.update(record);
+        if ((int) checksum.getValue() != expectedCrc) return validBytes;
+        BackendOperation op = BackendOperation.readFrom(new DataInputStream(new ByteArrayInputStream(record)));
+        if (op.getSeq() > afterSeq) operations.add(op);
+        validBytes += 8 + length;
+      } catch (EOFException e) {
+        return validBytes;
+      }
+    }
+  }
+
+  private synchronized void startFlusher() {
+    if (this.flusher != null || this.closed) return;
+    this.flusher = new Thread(() -> {
+      while (!this.closed) {
+        synchronized (this) {
+          while (this.pending.size() == 0 && !this.closed) {
+            try {
+              wait();
+            } catch (InterruptedException e) {
+              return;
+            }
+          }
+        }
+        flush();
+      }
+    }, "wal-flusher");
+    this.flusher.setDaemon(true);
+    this.flusher.start();
+  }
+
+  /*
+   * Keeps a second replica from sharing the same directory
+   */
+  private void lockDirectory() throws IOException {
+    if (!this.directory.isDirectory() && !this.directory.mkdirs()) {
+      throw new IOException("cannot create " + this.directory);
+    }
+    FileChannel lockChannel = FileChannel.open(new File(this.directory, "wal.lock").toPath(),
+                                               StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+    this.directoryLock = lockChannel.tryLock();
+    if (this.directoryLock == null) {
+      lockChannel.close();
+      throw new IOException(this.directory + " is in use by another replica");
+    }
+  }
+
+  private File[] segmentFiles() {
+    File[] files = this.directory.listFiles((dir, name) -> name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX));
+    if (files == null) return new File[0];
+    Arrays.sort(files, (a, b) -> Long.compare(segmentStart(a), segmentStart(b)));
+    return files;
+  }
+
+  private static String segmentName(long firstSeq) {
+    return String.format("%s%020d%s", SEGMENT_PREFIX, firstSeq, SEGMENT_SUFFIX);
+  }
+
+  private static long segmentStart(File file) {
+    String name = file.getName();
+    return Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+  }
+}
@@ -0,0 +1,267 @@
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+
+public class BackendOperation implements Serializable {
+
+  /*
+   * State-changing backend requests
+   */
+  public enum Type {
+    ADD_USER,
+    OPEN_AUCTION,
+    CLOSE_AUCTION,
+    PLACE_BID,
+    DOUBLE_AUCTION_BUY,
+    DOUBLE_AUCTION_SELL,
+    PLACE_BIDS,
+    LEASE_IDS,
+    CLEAR_CALL_MARKET,
+    CLEAR_CALL_MARKETS
+  }
+
+  private Type type;
+  private long seq;
+  private int userId;
+  private int itemId;
+  private int condition;
+  private int quantity;
+  private float price;
+  private float secondPrice;
+  private String userName;
+  private String itemType;
+  private String title;
+  private String description;
+  private byte[] publicKey;
+  private String originAddress;
+  private long originSeqno;
+  private long blockEnd;
+  private ArrayList<BackendOperation> batch;
+
+  /**
+   * A state-changing backend request, as recorded in the write-ahead log
+   *
+   * Each type only uses some of the fields (see the factories below).
+   * Ids assigned while applying (e.g. a new listing's item id) are stored
+   * on the operation before it is logged, so replaying it is deterministic.
+   * The origin (frontend address + multicast seqno, see BackendDispatcher)
+   * identifies the request across replicas.
+   */
+  private BackendOperation(Type type) {
+    this.type = type;
+    this.seq = 0;
+    this.itemId = -1;
+    this.quantity = 1;
+    this.originSeqno = -1;
+  }
+
+  public static BackendOperation addUser(Integer userId, String userName, byte[] publicKey) {
+    BackendOperation op = new BackendOperation(Type.ADD_USER);
+    op.userId = userId;
+    op.userName = userName;
+    op.publicKey = publicKey;
+    return op;
+  }
+
+  public static BackendOperation openAuction(Integer userId, String title, String itemType, String description,
+                                             Integer condition, Float reservePrice, Float startingPrice) {
+    BackendOperation op = new BackendOperation(Type.OPEN_AUCTION);
+    op.userId = userId;
+    op.title = title;
+    op.itemType = itemType;
+    op.description = description;
+    op.condition = condition;
+    op.price = reservePrice;
+    op.secondPrice = startingPrice;
+    return op;
+  }
+
+  public static BackendOperation closeAuction(Integer listingId, String itemType, Integer userId) {
+    BackendOperation op = new BackendOperation(Type.CLOSE_AUCTION);
+    op.itemId = listingId;
+    op.itemType = itemType;
+    op.userId = userId;
+    return op;
+  }
+
+  public static BackendOperation placeBid(Integer userId, Integer listingId, Float bid) {
+    BackendOperation op = new BackendOperation(Type.PLACE_BID);
+    op.userId = userId;
+    op.itemId = listingId;
+    op.price = bid;
+    return op;
+  }
+
+  /*
+   * Several bids sent as one request: logged, replicated and
+   * deduplicated as a single operation
+   */
+  public static BackendOperation placeBids(List<BidRequest> bids) {
+    BackendOperation op = new BackendOperation(Type.PLACE_BIDS);
+    op.batch = new ArrayList<BackendOperation>(bids.size());
+    for (BidRequest bid : bids) {
+      op.batch.add(placeBid(bid.getUserId(), bid.getListingId(), bid.getBid()));
+    }
+    return op;
+  }
+
+  /*
+   * Ids of a kind (itemType field) below blockEnd have been leased
+   */
+  public static BackendOperation leaseIds(String kind, long blockEnd) {
+    BackendOperation op = new BackendOperation(Type.LEASE_IDS);
+    op.itemType = kind;
+    op.blockEnd = blockEnd;
+    return op;
+  }
+
+  /*
+   * One clearing of a call market (tick in the blockEnd field)
+   */
+  public static BackendOperation clearCallMarket(String itemType, long tick) {
+    BackendOperation op = new BackendOperation(Type.CLEAR_CALL_MARKET);
+    op.itemType = itemType;
+    op.blockEnd = tick;
+    return op;
+  }
+
+  /*
+   * One tick of several call markets, logged and replicated as a single
+   * operation (a CLEAR_CALL_MARKET per item type, each type once)
+   */
+  public static BackendOperation clearCallMarkets(List<String> itemTypes, long tick) {
+    BackendOperation op = new BackendOperation(Type.CLEAR_CALL_MARKETS);
+    LinkedHashSet<String> types = new LinkedHashSet<String>();
+    for (String itemType : itemTypes) { types.add(itemType.toLowerCase()); }
+    op.batch = new ArrayList<BackendOperation>(types.size());
+    for (String itemType : types) { op.batch.add(clearCallMarket(itemType, tick)); }
+    return op;
+  }
+
+  public static BackendOperation doubleAuctionBuy(Integer userId, String itemType, Float bid, Integer quantity) {
+    BackendOperation op = new BackendOperation(Type.DOUBLE_AUCTION_BUY);
+    op.userId = userId;
+    op.itemType = itemType;
+    op.price = bid;
+    op.quantity = quantity;
+    return op;
+  }
+
+  public static BackendOperation doubleAuctionSell(Integer userId, String title, String itemType, String description,
+                                                   Integer condition, Float reservePrice, Float startingPrice,
+                                                   Integer quantity) {
+    BackendOperation op = openAuction(userId, title, itemType, description, condition, reservePrice, startingPrice);
+    op.type = Type.DOUBLE_AUCTION_SELL;
+    op.quantity = quantity;
+    return op;
+  }
+
+  public Type getType() { return this.type; }
+  public long getSeq() { return this.seq; }
+  public void setSeq(long seq) { this.seq = seq; }
+  public int getUserId() { return this.userId; }
+  public int getItemId() { return this.itemId; }
+  public void setItemId(int itemId) { this.itemId = itemId; }
+  public int getCondition() { return this.condition; }
+  public int getQuantity() { return this.quantity; }
+  public float getPrice() { return this.price; }
+  public float getSecondPrice() { return this.secondPrice; }
+  public String getUserName() { return this.userName; }
+  public String getItemType() { return this.itemType; }
+  public String getTitle() { return this.title; }
+  public String getDescription() { return this.description; }
+  public byte[] getPublicKey() { return this.publicKey; }
+  public String getOriginAddress() { return this.originAddress; }
+  public long getOriginSeqno() { return this.originSeqno; }
+  public long getBlockEnd() { return this.blockEnd; }
+  public List<BackendOperation> getBatch() { return this.batch; }
+  public boolean hasOrigin() { return this.originAddress != null && this.originSeqno >= 0; }
+
+  public void setOrigin(String originAddress, long originSeqno) {
+    this.originAddress = originAddress;
+    this.originSeqno = originSeqno;
+  }
+
+  /*
+   * Compact binary form used by the write-ahead log
+   */
+  public void writeTo(DataOutput out) throws IOException {
+    out.writeByte(this.type.ordinal());
+    out.writeLong(this.seq);
+    out.writeInt(this.userId);
+    out.writeInt(this.itemId);
+    out.writeInt(this.condition);
+    out.writeInt(this.quantity);
+    out.writeFloat(this.price);
+    out.writeFloat(this.secondPrice);
+    writeString(out, this.userName);
+    writeString(out, this.itemType);
+    writeString(out, this.title);
+    writeString(out, this.description);
+    writeBytes(out, this.publicKey);
+    writeString(out, this.originAddress);
+    out.writeLong(this.originSeqno);
+    out.writeLong(this.blockEnd);
+    out.writeInt((this.batch == null) ? -1 : this.batch.size());
+    if (this.batch != null) {
+      for (BackendOperation op : this.batch) { op.writeTo(out); }
+    }
+  }
+
+  public static BackendOperation readFrom(DataInput in) throws IOException {
+    BackendOperation op = new BackendOperation(Type.values()[in.readByte()]);
+    op.seq = in.readLong();
+    op.userId = in.readInt();
+    op.itemId = in.readInt();
+    op.condition = in.readInt();
+    op.quantity = in.readInt();
+    op.price = in.readFloat();
+    op.secondPrice = in.readFloat();
+    op.userName = readString(in);
+    op.itemType = readString(in);
+    op.title = readString(in);
+    op.description = readString(in);
+    op.publicKey = readBytes(in);
+    op.originAddress = readString(in);
+    op.originSeqno = in.readLong();
+    op.blockEnd = in.readLong();
+    int batchSize = in.readInt();
+    if (batchSize >= 0) {
+      op.batch = new ArrayList<BackendOperation>(batchSize);
+      for (int i = 0; i < batchSize; i++) { op.batch.add(readFrom(in)); }
+    }
+    return op;
+  }
+
+  private static void writeString(DataOutput out, String value) throws IOException {
+    writeBytes(out, (value == null) ? null : value.getBytes(StandardCharsets.UTF_8));
+  }
+
+  private static String readString(DataInput in) throws IOException {
+    byte[] bytes = readBytes(in);
+    return (bytes == null) ? null : new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  private static void writeBytes(DataOutput out, byte[] value) throws IOException {
+    out.writeInt((value == null) ? -1 : value.length);
+    if (value != null) out.write(value);
+  }
+
+  private static byte[] readBytes(DataInput in) throws IOException {
+    int length = in.readInt();
+    if (length < 0) return null;
+    byte[] bytes = new byte[length];
+    in.readFully(bytes);
+    return bytes;
+  }
+
+  @Override
+  public String toString() {
+    return this.type + "#" + this.seq;
+  }
+}
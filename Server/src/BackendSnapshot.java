@@ -0,0 +1,101 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+
+public class BackendSnapshot implements Serializable {
+
+  private static final String SNAPSHOT_FILE = "snapshot.bin";
+
+  private final long seq;
+  private final int nextItemId;
+  private final ArrayList<CompactListing> listings;
+  private final HashMap<Integer, AuctionUser> users;
+  private final HashMap<String, DoubleAuction> doubleAuctions;
+  private final HashMap<String, Long> appliedOrigins;
+  private final HashMap<String, Long> idLeases;
+
+  /**
+   * Copy of a backend replica's state as of operation "seq"
+   *
+   * Captured while writes are paused, then written to disk (or sent to a
+   * peer) without holding up requests. Listings and double auctions are
+   * deep copies, since the live ones keep changing; users never change
+   * once added. appliedOrigins holds, per frontend, the seqno of the last
+   * request applied (see BackendDispatcher). idLeases holds, per kind of
+   * id, the first id not leased yet (see IdBlockAllocator).
+   */
+  public BackendSnapshot(long seq, int nextItemId, ArrayList<CompactListing> listings,
+                         Map<Integer, AuctionUser> users, Map<String, DoubleAuction> doubleAuctions,
+                         Map<String, Long> appliedOrigins, Map<String, Long> idLeases) {
+    this.seq = seq;
+    this.nextItemId = nextItemId;
+    this.listings = listings;
+    this.users = new HashMap<Integer, AuctionUser>(users);
+    this.doubleAuctions = deepCopy(new HashMap<String, DoubleAuction>(doubleAuctions));
+    this.appliedOrigins = new HashMap<String, Long>(appliedOrigins);
+    this.idLeases = new HashMap<String, Long>(idLeases);
+  }
+
+  public long getSeq() { return this.seq; }
+  public int getNextItemId() { return this.nextItemId; }
+  public ArrayList<CompactListing> getListings() { return this.listings; }
+  public HashMap<Integer, AuctionUser> getUsers() { return this.users; }
+  public HashMap<String, DoubleAuction> getDoubleAuctions() { return this.doubleAuctions; }
+  public HashMap<String, Long> getAppliedOrigins() { return this.appliedOrigins; }
+  public HashMap<String, Long> getIdLeases() { return this.idLeases; }
+
+  /*
+   * Writes the snapshot next to the WAL, replacing the previous one
+   * atomically (write to a temp file, fsync, rename)
+   */
+  public void writeTo(File directory) throws IOException {
+    File target = new File(directory, SNAPSHOT_FILE);
+    File temp = new File(directory, SNAPSHOT_FILE + ".tmp");
+    try (FileOutputStream file = new FileOutputStream(temp);
+         ObjectOutputStream out = new ObjectOutputStream(new BufferedOutputStream(file))) {
+      out.writeObject(this);
+      out.flush();
+      file.getFD().sync();
+    }
+    Files.move(temp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+  }
+
+  /*
+   * Latest snapshot in a directory, or null if there is none
+   */
+  public static BackendSnapshot readFrom(File directory) throws IOException, ClassNotFoundException {
+    File target = new File(directory, SNAPSHOT_FILE);
+    if (!target.isFile()) return null;
+    try (ObjectInputStream in = new ObjectInputStream(new BufferedInputStream(new FileInputStream(target)))) {
+      return (BackendSnapshot) in.readObject();
+    }
+  }
+
+  @SuppressWarnings("unchecked")
+  private static <T extends Serializable> T deepCopy(T value) {
+    try {
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+        out.writeObject(value);
+      }
+      try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+        return (T) in.readObject();
+      }
+    } catch (IOException | ClassNotFoundException e) {
+      throw new IllegalStateException("could not copy snapshot state", e);
+    }
+  }
+}
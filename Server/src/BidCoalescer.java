@@ -0,0 +1,80 @@
+import java.util.ArrayList;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+public class BidCoalescer {
+
+  private final LinkedBlockingQueue<PendingBid> queue;
+  private final Function<ArrayList<BidRequest>, CompletableFuture<ArrayList<Boolean>>> sender;
+  private final long windowNanos;
+  private final int maxBatch;
+
+  /**
+   * Gathers bids from concurrent clients into batches
+   *
+   * The first bid to arrive opens a window of windowMicros; every bid
+   * arriving within it (up to maxBatch) goes out with it as one
+   * placeBids request, i.e. one replicated message and one WAL entry on
+   * each replica. Each caller gets its own bid's result back. Batches are
+   * sent without waiting for the previous one to be answered.
+   */
+  public BidCoalescer(Function<ArrayList<BidRequest>, CompletableFuture<ArrayList<Boolean>>> sender,
+                      long windowMicros, int maxBatch) {
+    this.queue = new LinkedBlockingQueue<PendingBid>();
+    this.sender = sender;
+    this.windowNanos = TimeUnit.MICROSECONDS.toNanos(windowMicros);
+    this.maxBatch = Math.max(1, maxBatch);
+    Thread batcher = new Thread(this::run, "bid-coalescer");
+    batcher.setDaemon(true);
+    batcher.start();
+  }
+
+  /*
+   * Queues a bid
+   * @return future of its result (null if the backends gave none)
+   */
+  public CompletableFuture<Boolean> submit(BidRequest bid) {
+    PendingBid pending = new PendingBid(bid);
+    this.queue.add(pending);
+    return pending.result;
+  }
+
+  private void run() {
+    while (true) {
+      ArrayList<PendingBid> batch = new ArrayList<PendingBid>();
+      try {
+        batch.add(this.queue.take());
+        long deadline = System.nanoTime() + this.windowNanos;
+        while (batch.size() < this.maxBatch) {
+          PendingBid next = this.queue.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+          if (next == null) break;
+          batch.add(next);
+        }
+      } catch (InterruptedException e) {
+        batch.forEach(pending -> pending.result.complete(null));
+        return;
+      }
+      send(batch);
+    }
+  }
+
+  private void send(ArrayList<PendingBid> batch) {
+    ArrayList<BidRequest> bids = new ArrayList<BidRequest>(batch.size());
+    batch.forEach(pending -> bids.add(pending.bid));
+    this.sender.apply(bids).whenComplete((results, error) -> {
+      for (int i = 0; i < batch.size(); i++) {
+        boolean answered = error == null && results != null && i < results.size();
+        batch.get(i).result.complete(answered ? results.get(i) : null);
+      }
+    });
+  }
+
+  private static class PendingBid {
+    private final BidRequest bid;
+    private final CompletableFuture<Boolean> result = new CompletableFuture<Boolean>();
+
+    private PendingBid(BidRequest bid) { this.bid = bid; }
+  }
+}
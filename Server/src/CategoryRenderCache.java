@@ -0,0 +1,79 @@
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+public class CategoryRenderCache {
+
+  private final AtomicLong stateVersion;
+  private final ConcurrentHashMap<String, AtomicLong> categoryVersions;
+  private final ConcurrentHashMap<String, Rendering> categoryRenders;
+  private volatile Rendering fullRender;
+
+  /**
+   * Versioned cache of rendered listing text
+   *
+   * Every change to a category bumps that category's version and the
+   * global state version. A cached rendering is reused while its
+   * version is still current, so unchanged categories are never
+   * formatted again. Writers must mutate state before calling
+   * invalidate(); a rendering that races a write is stored under the
+   * old version and simply rebuilt on the next request.
+   */
+  public CategoryRenderCache() {
+    this.stateVersion = new AtomicLong(0);
+    this.categoryVersions = new ConcurrentHashMap<String, AtomicLong>();
+    this.categoryRenders = new ConcurrentHashMap<String, Rendering>();
+    this.fullRender = null;
+  }
+
+  public long getStateVersion() { return this.stateVersion.get(); }
+
+  public void invalidate(String category) {
+    versionOf(category).incrementAndGet();
+    this.stateVersion.incrementAndGet();
+  }
+
+  public void invalidateAll() {
+    for (AtomicLong version : this.categoryVersions.values()) { version.incrementAndGet(); }
+    this.stateVersion.incrementAndGet();
+  }
+
+  /*
+   * Cached text for one category, rendered only if the category changed
+   */
+  public String renderCategory(String category, Function<String, String> renderer) {
+    long version = versionOf(category).get();
+    Rendering cached = this.categoryRenders.get(category);
+    if (cached != null && cached.version == version) return cached.text;
+    String text = renderer.apply(category);
+    this.categoryRenders.put(category, new Rendering(version, text));
+    return text;
+  }
+
+  /*
+   * Cached text for the whole state, rebuilt only if anything changed
+   */
+  public String renderAll(Supplier<String> renderer) {
+    long version = this.stateVersion.get();
+    Rendering cached = this.fullRender;
+    if (cached != null && cached.version == version) return cached.text;
+    String text = renderer.get();
+    this.fullRender = new Rendering(version, text);
+    return text;
+  }
+
+  private AtomicLong versionOf(String category) {
+    return this.categoryVersions.computeIfAbsent(category, k -> new AtomicLong(0));
+  }
+
+  private static class Rendering {
+    private final long version;
+    private final String text;
+
+    private Rendering(long version, String text) {
+      this.version = version;
+      this.text = text;
+    }
+  }
+}
@@ -0,0 +1,141 @@
+import java.io.Serializable;
+import java.util.function.IntFunction;
+
+public class CompactListing implements Serializable {
+
+  public static final int NO_BIDDER = -1;
+
+  private final int itemId;
+  private final byte itemType;
+  private final byte condition;
+  private final long startingCents;
+  private final long reserveCents;
+  private long currentCents;
+  private int bestBidderId;
+  private final String title;
+  private final String description;
+  private AuctionBidLog bidLog;
+
+  /**
+   * Backend's internal representation of a forward auction listing
+   *
+   * Prices are fixed-point cents, the item type is an enum ordinal, the
+   * condition is its 1-5 scale value and the best bidder is a user id.
+   * The bid log is only allocated once the first bid arrives.
+   * AuctionListing remains the type sent to frontends and clients,
+   * see toAuctionListing().
+   */
+  public CompactListing(int itemId, AuctionItemTypeEnum itemType, int condition,
+                        String title, String description,
+                        long startingCents, long reserveCents) {
+    this.itemId = itemId;
+    this.itemType = (byte) itemType.ordinal();
+    this.condition = normalizeCondition(condition);
+    this.title = title;
+    this.description = description;
+    this.startingCents = startingCents;
+    this.reserveCents = reserveCents;
+    this.currentCents = 0;
+    this.bestBidderId = NO_BIDDER;
+    this.bidLog = null;
+  }
+
+  /*
+   * Rebuilds a listing from stored fields (see MappedListingStore)
+   */
+  public static CompactListing restore(int itemId, int itemTypeOrdinal, int condition,
+                                       String title, String description,
+                                       long startingCents, long reserveCents,
+                                       long currentCents, int bestBidderId, AuctionBidLog bidLog) {
+    CompactListing listing = new CompactListing(itemId, AuctionItemTypeEnum.fromOrdinal(itemTypeOrdinal),
+                                                condition, title, description, startingCents, reserveCents);
+    listing.currentCents = currentCents;
+    listing.bestBidderId = bestBidderId;
+    listing.bidLog = bidLog;
+    return listing;
+  }
+
+  /*
+   * Independent copy (the bid log included), e.g. for snapshots
+   */
+  public CompactListing copy() {
+    return restore(this.itemId, this.itemType, this.condition, this.title, this.description,
+                   this.startingCents, this.reserveCents, this.currentCents, this.bestBidderId,
+                   (this.bidLog == null) ? null : this.bidLog.copy());
+  }
+
+  /*
+   * Out-of-scale conditions default to "Used." (3), as AuctionItem does
+   */
+  public static byte normalizeCondition(int condition) {
+    return (byte) ((condition >= 1 && condition <= 5) ? condition : 3);
+  }
+
+  public static long toCents(Float price) {
+    return (price == null) ? 0 : Math.round(price.doubleValue() * 100.0);
+  }
+
+  public static Float fromCents(long cents) { return cents / 100.0f; }
+
+  public int getItemId() { return this.itemId; }
+  public AuctionItemTypeEnum getItemType() { return AuctionItemTypeEnum.fromOrdinal(this.itemType); }
+  public int getCondition() { return this.condition; }
+  public String getTitle() { return this.title; }
+  public String getDescription() { return this.description; }
+  public long getStartingCents() { return this.startingCents; }
+  public long getReserveCents() { return this.reserveCents; }
+  public long getCurrentCents() { return this.currentCents; }
+  public int getBestBidderId() { return this.bestBidderId; }
+  public AuctionBidLog getBidLog() { return this.bidLog; }
+
+  /*
+   * Current best bid, or the starting price while no bid has beaten it
+   */
+  public long getEffectiveCents() { return Math.max(this.currentCents, this.startingCents); }
+
+  /*
+   * Whether a bid beats the current best bid and the starting price
+   */
+  public boolean isBidAcceptable(long bidCents) {
+    return bidCents > this.currentCents && bidCents >= this.startingCents;
+  }
+
+  public void acceptBid(int bidderId, long bidCents) {
+    this.bestBidderId = bidderId;
+    this.currentCents = bidCents;
+  }
+
+  public void logBid(String bidderName, long bidCents, boolean accepted) {
+    if (this.bidLog == null) this.bidLog = new AuctionBidLog();
+    this.bidLog.append(bidderName, fromCents(bidCents), accepted);
+  }
+
+  public AuctionItem toAuctionItem() {
+    return new AuctionItem(this.itemId, this.title, getItemType().getValue(),
+                           this.description, (int) this.condition);
+  }
+
+  /*
+   * Wire DTO for this listing, resolving the best bidder's user name
+   */
+  public AuctionListing toAuctionListing(IntFunction<String> userNames) {
+    AuctionListing listing = new AuctionListing(toAuctionItem(), fromCents(this.startingCents),
+                                                fromCents(this.reserveCents));
+    listing.setCurrentPrice(fromCents(this.currentCents));
+    if (this.bestBidderId != NO_BIDDER) listing.setBestBidUser(userNames.apply(this.bestBidderId));
+    if (this.bidLog != null) listing.setBidLog(this.bidLog);
+    return listing;
+  }
+
+  @Override
+  public boolean equals(Object obj) {
+    if (this == obj) return true;
+    if (obj == null || getClass() != obj.getClass()) return false;
+    CompactListing other = (CompactListing) obj;
+    return this.itemId == other.itemId && this.currentCents == other.currentCents
+        && this.bestBidderId == other.bestBidderId;
+  }
+
+  @Override
+  public int hashCode() { return Integer.hashCode(this.itemId); }
+}
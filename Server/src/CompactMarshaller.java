@@ -0,0 +1,448 @@
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.nio.charset.StandardCharsets;
+import java.security.KeyFactory;
+import java.security.PublicKey;
+import java.security.spec.X509EncodedKeySpec;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.jgroups.blocks.MethodCall;
+import org.jgroups.blocks.RpcDispatcher;
+import org.jgroups.util.Buffer;
+import org.jgroups.util.ByteArrayDataInputStream;
+import org.jgroups.util.ByteArrayDataOutputStream;
+import org.jgroups.util.Util;
+
+public class CompactMarshaller implements RpcDispatcher.Marshaller {
+
+  private static final CompactMarshaller INSTANCE = new CompactMarshaller();
+
+  // One byte in front of every value
+  private static final byte NULL = 0;
+  private static final byte TRUE = 1;
+  private static final byte FALSE = 2;
+  private static final byte INTEGER = 3;
+  private static final byte LONG = 4;
+  private static final byte FLOAT = 5;
+  private static final byte STRING = 6;
+  private static final byte BYTES = 7;
+  private static final byte ARRAY_LIST = 8;
+  private static final byte HASH_MAP = 9;
+  private static final byte ITEM = 10;
+  private static final byte LISTING = 11;
+  private static final byte PAGE = 12;
+  private static final byte BID_REQUEST = 13;
+  private static final byte USER = 14;
+  private static final byte REPLICA_ANSWER = 15;
+  private static final byte METHOD_CALL = 16;
+  private static final byte SERIALIZED = 17;
+  private static final byte MATCH_EVENT = 18;
+  private static final byte OBJECT_ARRAY = 19;
+  private static final byte CLASS_ARRAY = 20;
+
+  // Parameter types of backend methods, by position (anything else goes by name)
+  private static final Class<?>[] TYPES = {
+    Integer.class, Long.class, Float.class, Boolean.class, String.class, byte[].class,
+    ArrayList.class, HashMap.class, List.class, Object[].class, Class[].class
+  };
+  private static final byte TYPE_BY_NAME = -1;
+
+  // MethodCall has no getter for its parameter types
+  private static final Field METHOD_CALL_TYPES;
+  static {
+    try {
+      METHOD_CALL_TYPES = MethodCall.class.getDeclaredField("types");
+      METHOD_CALL_TYPES.setAccessible(true);
+    } catch (NoSuchFieldException e) {
+      throw new ExceptionInInitializerError(e);
+    }
+  }
+
+  /**
+   * Marshaller for requests and responses between frontends and backends
+   *
+   * The method calls and the types they carry (listings, items, pages,
+   * users, bid batches, match events, replica answers, boxed numbers,
+   * strings, the lists and maps made of them, and the argument and
+   * parameter type arrays of digested calls) are written field by
+   * field behind a one byte tag, instead of through Java serialization
+   * with its class descriptors. The buffer is sized up front from an
+   * estimate of the encoded size. Anything else (exceptions, state transfer chunks)
+   * still goes through Java serialization.
+   *
+   * Every member of the group has to use it, see install().
+   */
+  private CompactMarshaller() {}
+
+  /*
+   * Sets the marshaller for both requests and responses
+   */
+  public static void install(RpcDispatcher dispatcher) {
+    dispatcher.setRequestMarshaller(INSTANCE);
+    dispatcher.setResponseMarshaller(INSTANCE);
+  }
+
+  public Buffer objectToBuffer(Object obj) throws Exception {
+    ByteArrayDataOutputStream out = new ByteArrayDataOutputStream(sizeOf(obj));
+    write(out, obj);
+    return out.getBuffer();
+  }
+
+  public Object objectFromBuffer(byte[] buf, int offset, int length) throws Exception {
+    return read(new ByteArrayDataInputStream(buf, offset, length));
+  }
+
+  public static byte[] encode(Object obj) throws Exception {
+    ByteArrayDataOutputStream out = new ByteArrayDataOutputStream(sizeOf(obj));
+    write(out, obj);
+    return Arrays.copyOf(out.buffer(), out.position());
+  }
+
+  public static Object decode(byte[] bytes) throws Exception {
+    return (bytes == null) ? null : read(new ByteArrayDataInputStream(bytes));
+  }
+
+  private static void write(DataOutput out, Object obj) throws Exception {
+    if (obj == null) {
+      out.writeByte(NULL);
+    } else if (obj instanceof Boolean) {
+      out.writeByte((Boolean) obj ? TRUE : FALSE);
+    } else if (obj instanceof Integer) {
+      out.writeByte(INTEGER);
+      out.writeInt((Integer) obj);
+    } else if (obj instanceof Long) {
+      out.writeByte(LONG);
+      out.writeLong((Long) obj);
+    } else if (obj instanceof Float) {
+      out.writeByte(FLOAT);
+      out.writeFloat((Float) obj);
+    } else if (obj instanceof String) {
+      out.writeByte(STRING);
+      writeString(out, (String) obj);
+    } else if (obj instanceof byte[]) {
+      out.writeByte(BYTES);
+      writeBytes(out, (byte[]) obj);
+    } else if (obj.getClass() == ArrayList.class) {
+      ArrayList<?> list = (ArrayList<?>) obj;
+      out.writeByte(ARRAY_LIST);
+      out.writeInt(list.size());
+      for (Object element : list) { write(out, element); }
+    } else if (obj.getClass() == HashMap.class) {
+      HashMap<?, ?> map = (HashMap<?, ?>) obj;
+      out.writeByte(HASH_MAP);
+      out.writeInt(map.size());
+      for (Map.Entry<?, ?> entry : map.entrySet()) {
+        write(out, entry.getKey());
+        write(out, entry.getValue());
+      }
+    } else if (obj.getClass() == Object[].class) {
+      Object[] array = (Object[]) obj;
+      out.writeByte(OBJECT_ARRAY);
+      out.writeInt(array.length);
+      for (Object element : array) { write(out, element); }
+    } else if (obj.getClass() == Class[].class) {
+      Class<?>[] types = (Class<?>[]) obj;
+      out.writeByte(CLASS_ARRAY);
+      out.writeInt(types.length);
+      for (Class<?> type : types) { writeType(out, type); }
+    } else if (obj instanceof AuctionItem) {
+      out.writeByte(ITEM);
+      writeItem(out, (AuctionItem) obj);
+    } else if (obj instanceof AuctionListing) {
+      out.writeByte(LISTING);
+      writeListing(out, (AuctionListing) obj);
+    } else if (obj instanceof AuctionListingPage) {
+      out.writeByte(PAGE);
+      writePage(out, (AuctionListingPage) obj);
+    } else if (obj instanceof BidRequest) {
+      BidRequest bid = (BidRequest) obj;
+      out.writeByte(BID_REQUEST);
+      out.writeInt(bid.getUserId());
+      out.writeInt(bid.getListingId());
+      out.writeFloat(bid.getBid());
+    } else if (obj instanceof AuctionUser) {
+      out.writeByte(USER);
+      writeUser(out, (AuctionUser) obj);
+    } else if (obj instanceof ReplicaAnswer) {
+      ReplicaAnswer answer = (ReplicaAnswer) obj;
+      out.writeByte(REPLICA_ANSWER);
+      writeBytes(out, answer.getDigest());
+      writeBytes(out, answer.getSerializedPayload());
+    } else if (obj instanceof MatchEvent) {
+      out.writeByte(MATCH_EVENT);
+      ((MatchEvent) obj).writeTo(out);
+    } else if (obj instanceof MethodCall && METHOD_CALL_TYPES.get(obj) != null) {
+      out.writeByte(METHOD_CALL);
+      writeMethodCall(out, (MethodCall) obj);
+    } else {
+      out.writeByte(SERIALIZED);
+      writeBytes(out, Util.objectToByteBuffer(obj));
+    }
+  }
+
+  private static Object read(DataInput in) throws Exception {
+    byte tag = in.readByte();
+    switch (tag) {
+      case NULL:           return null;
+      case TRUE:           return Boolean.TRUE;
+      case FALSE:          return Boolean.FALSE;
+      case INTEGER:        return in.readInt();
+      case LONG:           return in.readLong();
+      case FLOAT:          return in.readFloat();
+      case STRING:         return readString(in);
+      case BYTES:          return readBytes(in);
+      case ITEM:           return readItem(in);
+      case LISTING:        return readListing(in);
+      case PAGE:           return readPage(in);
+      case BID_REQUEST:    return new BidRequest(in.readInt(), in.readInt(), in.readFloat());
+      case USER:           return readUser(in);
+      case REPLICA_ANSWER: return new ReplicaAnswer(readBytes(in), readBytes(in));
+      case METHOD_CALL:    return readMethodCall(in);
+      case SERIALIZED:     return Util.objectFromByteBuffer(readBytes(in));
+      case MATCH_EVENT:    return MatchEvent.readFrom(in);
+      case ARRAY_LIST: {
+        int size = in.readInt();
+        ArrayList<Object> list = new ArrayList<Object>(size);
+        for (int i = 0; i < size; i++) { list.add(read(in)); }
+        return list;
+      }
+      case HASH_MAP: {
+        int size = in.readInt();
+        HashMap<Object, Object> map = new HashMap<Object, Object>();
+        for (int i = 0; i < size; i++) { map.put(read(in), read(in)); }
+        return map;
+      }
+      case OBJECT_ARRAY: {
+        Object[] array = new Object[in.readInt()];
+        for (int i = 0; i < array.length; i++) { array[i] = read(in); }
+        return array;
+      }
+      case CLASS_ARRAY: {
+        Class<?>[] types = new Class<?>[in.readInt()];
+        for (int i = 0; i < types.length; i++) { types[i] = readType(in); }
+        return types;
+      }
+      default:
+        throw new IOException("unknown marshaller tag " + tag);
+    }
+  }
+
+  /*
+   * Method name, then each argument's parameter type and value
+   */
+  private static void writeMethodCall(DataOutput out, MethodCall call) throws Exception {
+    Class<?>[] types = (Class<?>[]) METHOD_CALL_TYPES.get(call);
+    Object[] args = call.getArgs();
+    writeString(out, call.getName());
+    out.writeInt(types.length);
+    for (int i = 0; i < types.length; i++) {
+      writeType(out, types[i]);
+      write(out, (args == null) ? null : args[i]);
+    }
+  }
+
+  private static MethodCall readMethodCall(DataInput in) throws Exception {
+    String name = readString(in);
+    int count = in.readInt();
+    Class<?>[] types = new Class<?>[count];
+    Object[] args = new Object[count];
+    for (int i = 0; i < count; i++) {
+      types[i] = readType(in);
+      args[i] = read(in);
+    }
+    return new MethodCall(name, args, types);
+  }
+
+  /*
+   * Position in TYPES, or the class name for anything else
+   */
+  private static void writeType(DataOutput out, Class<?> type) throws IOException {
+    int index = Arrays.asList(TYPES).indexOf(type);
+    out.writeByte((index < 0) ? TYPE_BY_NAME : index);
+    if (index < 0) writeString(out, (type == null) ? null : type.getName());
+  }
+
+  private static Class<?> readType(DataInput in) throws Exception {
+    byte index = in.readByte();
+    if (index != TYPE_BY_NAME) return TYPES[index];
+    String name = readString(in);
+    return (name == null) ? null : Class.forName(name);
+  }
+
+  private static void writeItem(DataOutput out, AuctionItem item) throws IOException {
+    out.writeInt(item.getItemId());
+    writeString(out, item.getItemTitle());
+    writeString(out, item.getItemType());
+    writeString(out, item.getItemDescription());
+    out.writeByte(AuctionItem.conditionScale(item.getItemCondition()));
+  }
+
+  private static AuctionItem readItem(DataInput in) throws IOException {
+    return new AuctionItem(in.readInt(), readString(in), readString(in), readString(in), (int) in.readByte());
+  }
+
+  private static void writeListing(DataOutput out, AuctionListing listing) throws IOException {
+    out.writeBoolean(listing.getItem() != null);
+    if (listing.getItem() != null) writeItem(out, listing.getItem());
+    writeFloat(out, listing.getStartingPrice());
+    writeFloat(out, listing.getReservePrice());
+    writeFloat(out, listing.getCurrentPrice());
+    writeString(out, listing.getBestBidUser());
+    out.writeByte((listing.isAcutionOpen() == null) ? NULL : listing.isAcutionOpen() ? TRUE : FALSE);
+    out.writeBoolean(listing.getBidLog() != null);
+    if (listing.getBidLog() != null) listing.getBidLog().writeTo(out);
+  }
+
+  private static AuctionListing readListing(DataInput in) throws IOException {
+    AuctionListing listing = new AuctionListing();
+    if (in.readBoolean()) listing.setItem(readItem(in));
+    listing.setStartingPrice(readFloat(in));
+    listing.setReservePrice(readFloat(in));
+    listing.setCurrentPrice(readFloat(in));
+    listing.setBestBidUser(readString(in));
+    byte open = in.readByte();
+    listing.changeAuctionStatus((open == NULL) ? null : (open == TRUE));
+    if (in.readBoolean()) listing.setBidLog(AuctionBidLog.readFrom(in));
+    return listing;
+  }
+
+  private static void writePage(DataOutput out, AuctionListingPage page) throws IOException {
+    writeString(out, page.getNextCursor());
+    out.writeInt((page.getEntries() == null) ? -1 : page.getEntries().size());
+    if (page.getEntries() == null) return;
+    for (AuctionListingPage.Entry entry : page.getEntries()) {
+      out.writeInt(entry.getItemId());
+      writeString(out, entry.getItemTitle());
+      writeString(out, entry.getItemCondition());
+      writeFloat(out, entry.getPrice());
+    }
+  }
+
+  private static AuctionListingPage readPage(DataInput in) throws IOException {
+    String nextCursor = readString(in);
+    int size = in.readInt();
+    if (size < 0) return new AuctionListingPage(null, nextCursor);
+    ArrayList<AuctionListingPage.Entry> entries = new ArrayList<AuctionListingPage.Entry>(size);
+    for (int i = 0; i < size; i++) {
+      entries.add(new AuctionListingPage.Entry(in.readInt(), readString(in), readString(in), readFloat(in)));
+    }
+    return new AuctionListingPage(entries, nextCursor);
+  }
+
+  private static void writeUser(DataOutput out, AuctionUser user) throws IOException {
+    out.writeInt(user.getUserId());
+    writeString(out, user.getUserName());
+    writeString(out, user.getPassword());
+    writeBytes(out, (user.getPublicKey() == null) ? null : user.getPublicKey().getEncoded());
+  }
+
+  private static AuctionUser readUser(DataInput in) throws Exception {
+    Integer userId = in.readInt();
+    String userName = readString(in);
+    String password = readString(in);
+    byte[] encodedKey = readBytes(in);
+    PublicKey publicKey = (encodedKey == null)
+        ? null : KeyFactory.getInstance("RSA").generatePublic(new X509EncodedKeySpec(encodedKey));
+    return new AuctionUser(userId, userName, password, publicKey);
+  }
+
+  private static void writeString(DataOutput out, String value) throws IOException {
+    writeBytes(out, (value == null) ? null : value.getBytes(StandardCharsets.UTF_8));
+  }
+
+  private static String readString(DataInput in) throws IOException {
+    byte[] bytes = readBytes(in);
+    return (bytes == null) ? null : new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  private static void writeBytes(DataOutput out, byte[] value) throws IOException {
+    out.writeInt((value == null) ? -1 : value.length);
+    if (value != null) out.write(value);
+  }
+
+  private static byte[] readBytes(DataInput in) throws IOException {
+    int length = in.readInt();
+    if (length < 0) return null;
+    byte[] bytes = new byte[length];
+    in.readFully(bytes);
+    return bytes;
+  }
+
+  private static void writeFloat(DataOutput out, Float value) throws IOException {
+    out.writeBoolean(value != null);
+    if (value != null) out.writeFloat(value);
+  }
+
+  private static Float readFloat(DataInput in) throws IOException {
+    return in.readBoolean() ? in.readFloat() : null;
+  }
+
+  /*
+   * Estimate of the encoded size, so the buffer rarely has to grow
+   * (strings are counted one byte per char)
+   */
+  private static int sizeOf(Object obj) {
+    if (obj == null || obj instanceof Boolean) return 1;
+    if (obj instanceof Integer || obj instanceof Float) return 5;
+    if (obj instanceof Long) return 9;
+    if (obj instanceof String) return 5 + ((String) obj).length();
+    if (obj instanceof byte[]) return 5 + ((byte[]) obj).length;
+    if (obj instanceof AuctionItem) return 1 + itemSize((AuctionItem) obj);
+    if (obj instanceof AuctionListing) {
+      AuctionListing listing = (AuctionListing) obj;
+      int bidLog = (listing.getBidLog() == null) ? 0 : 12 + 16 * listing.getBidLog().retainedBids();
+      return 32 + ((listing.getItem() == null) ? 0 : itemSize(listing.getItem())) + length(listing.getBestBidUser()) + bidLog;
+    }
+    if (obj instanceof AuctionListingPage) {
+      List<AuctionListingPage.Entry> entries = ((AuctionListingPage) obj).getEntries();
+      return 16 + ((entries == null) ? 0 : 48 * entries.size());
+    }
+    if (obj instanceof MatchEvent) {
+      MatchEvent event = (MatchEvent) obj;
+      return 41 + length(event.getItemTitle()) + length(event.getItemType());
+    }
+    if (obj instanceof ReplicaAnswer) {
+      ReplicaAnswer answer = (ReplicaAnswer) obj;
+      return 9 + answer.getDigest().length + length(answer.getSerializedPayload());
+    }
+    if (obj instanceof ArrayList) {
+      int size = 5;
+      for (Object element : (ArrayList<?>) obj) { size += sizeOf(element); }
+      return size;
+    }
+    if (obj instanceof HashMap) {
+      int size = 5;
+      for (Map.Entry<?, ?> entry : ((HashMap<?, ?>) obj).entrySet()) {
+        size += sizeOf(entry.getKey()) + sizeOf(entry.getValue());
+      }
+      return size;
+    }
+    if (obj instanceof Class[]) return 5 + 2 * ((Class<?>[]) obj).length;
+    if (obj instanceof Object[]) {
+      int size = 5;
+      for (Object element : (Object[]) obj) { size += sizeOf(element); }
+      return size;
+    }
+    if (obj instanceof MethodCall) {
+      MethodCall call = (MethodCall) obj;
+      int size = 9 + call.getName().length();
+      if (call.getArgs() == null) return size;
+      for (Object arg : call.getArgs()) { size += 1 + sizeOf(arg); }
+      return size;
+    }
+    return 64;
+  }
+
+  private static int itemSize(AuctionItem item) {
+    return 17 + length(item.getItemTitle()) + length(item.getItemType()) + length(item.getItemDescription());
+  }
+
+  private static int length(String value) { return (value == null) ? 0 : value.length(); }
+  private static int length(byte[] value) { return (value == null) ? 0 : value.length; }
+}
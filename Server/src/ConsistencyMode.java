@@ -0,0 +1,14 @@
+/*
+ * How many backend replicas a frontend call waits for, and how their
+ * responses are reconciled (see GroupUtils.executeBackendReplicaCall)
+ */
+public enum ConsistencyMode {
+  // Every replica must answer, and all answers must be equal
+  ALL,
+  // A majority of replicas must agree; the others are sent to repair
+  MAJORITY,
+  // The first non-null answer wins
+  FIRST,
+  // A single replica, picked by load (see ReplicaSelector), answers
+  ANY
+}
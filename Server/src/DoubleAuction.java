@@ -1,156 +1,232 @@
 import java.io.Serializable;
+import java.util.ArrayList;
 import java.util.Comparator;
-import java.util.HashMap;
-import java.util.Map;
-import java.util.List;
-import java.util.Random;
+import java.util.HashSet;
+import java.util.PriorityQueue;
+import java.util.Set;
 
 public class DoubleAuction implements Serializable {
 
-  private String auctionItemType;
-  private Integer buyerCount;
-  private Integer sellerCount;
-
-  private HashMap<Integer, DoubleAuctionPair> listings;
-  private HashMap<Integer, DoubleAuctionPair> userBids;
-  private Random randomGenerator;
-  private Comparator<Map.Entry<Integer, DoubleAuctionPair>> compareBySellerPrice;
+  // Item types cleared as call markets, every CALL_MARKET_INTERVAL_SECONDS
+  // (comma separated display names; every backend and frontend needs the same list)
+  public static final Set<String> CALL_MARKET_TYPES = parseTypes(System.getenv("CALL_MARKET_TYPES"));
+  public static final int CALL_MARKET_INTERVAL_SECONDS = System.getenv("CALL_MARKET_INTERVAL_SECONDS") == null
+      ? 30 : Integer.parseInt(System.getenv("CALL_MARKET_INTERVAL_SECONDS"));
 
+  private String auctionItemType;
+  private boolean callMarket;
+  private long lastClearedTick;
+  // Fills of lastClearedTick, for the frontends asking after the first one
+  private ArrayList<MatchEvent> lastClearEvents;
+
+  // Resting orders: bids highest first, asks lowest reserve price first,
+  // the earliest order first at equal prices
+  private PriorityQueue<Order> bids;
+  private PriorityQueue<Order> asks;
+  // Buyers and sellers share one id sequence, so ids are unique in the
+  // match results and the same on every replica; it is also the arrival
+  // order for time priority
+  private Integer nextEntryId;
+
+  /**
+   * Continuous double auction (limit order book) of one item type
+   *
+   * Every order is matched as it arrives, against the best resting orders
+   * on the other side: a buyer buys the cheapest items whose reserve price
+   * its bid covers, a seller sells to the highest bids covering its
+   * reserve price. An order carries a quantity and can be filled by
+   * several orders on the other side; whatever is not filled waits in its
+   * heap until more orders arrive. A trade is made at the price of the
+   * order that was waiting. Adding an order costs O(log n) per order it
+   * fills.
+   *
+   * Item types in CALL_MARKET_TYPES are call markets instead: orders only
+   * rest in the heaps, and clear() settles every crossing order at once,
+   * at one price for all (see clear()).
+   */
   public DoubleAuction(String itemType) {
-    this.listings = new HashMap<Integer, DoubleAuctionPair>();
-    this.compareBySellerPrice = Comparator.comparing(entry -> entry.getValue().getListing().getReservePrice());
-    this.userBids = new HashMap<Integer, DoubleAuctionPair>();
+    this.bids = new PriorityQueue<Order>(new BidPriority());
+    this.asks = new PriorityQueue<Order>(new AskPriority());
     this.auctionItemType = itemType.toLowerCase();
-    this.randomGenerator = new Random();
-    this.buyerCount = 0;
-    this.sellerCount = 0;
+    this.callMarket = isCallMarket(itemType);
+    this.lastClearedTick = -1;
+    this.lastClearEvents = new ArrayList<MatchEvent>();
+    this.nextEntryId = 0;
+  }
+
+  public static boolean isCallMarket(String itemType) {
+    return itemType != null && CALL_MARKET_TYPES.contains(itemType.toLowerCase());
+  }
+
+  private static Set<String> parseTypes(String types) {
+    HashSet<String> keys = new HashSet<String>();
+    if (types == null) return keys;
+    for (String type : types.split(",")) {
+      if (!type.isBlank()) keys.add(type.trim().toLowerCase());
+    }
+    return keys;
+  }
+
+  public synchronized int getBidCount() { return this.bids.size(); }
+  public synchronized int getAskCount() { return this.asks.size(); }
+
+  /*
+   * Adds a buyer's bid for "quantity" units and fills as much of it as
+   * it can right away; the rest stays in the book
+   * @return the fills made (empty if none)
+   */
+  public synchronized ArrayList<MatchEvent> addBuyer(AuctionUser user, Float bid, Integer quantity) {
+    ArrayList<MatchEvent> events = new ArrayList<MatchEvent>();
+    Order buyer = new Order(this.nextEntryId++, bid, quantity, new DoubleAuctionPair(user, bid));
+    while (!this.callMarket && buyer.remaining > 0 && !this.asks.isEmpty() && this.asks.peek().price <= buyer.price) {
+      Order seller = this.asks.peek();
+      fill(seller, buyer, seller.price, Math.min(seller.remaining, buyer.remaining), events);
+      if (seller.remaining == 0) this.asks.poll();
+    }
+    if (buyer.remaining > 0) this.bids.add(buyer);
+    return events;
   }
 
   /*
-   * Check if auction needs to be closed
+   * Adds a seller's "quantity" identical items and sells as many as it
+   * can right away; the rest stays in the book
+   * @return the fills made (empty if none)
    */
-  public Boolean finalizeDoubleAuction() {
-    System.out.println("> Seller count (double auction " + this.auctionItemType + "): " + this.sellerCount);
-    System.out.println("> Buyer count (double auction " + this.auctionItemType + "):" + this.buyerCount);
-    return (sellerCount > 1 && buyerCount == sellerCount)
-        ? true
-        : false;
+  public synchronized ArrayList<MatchEvent> addSeller(AuctionUser user, AuctionListing listing,
+                                                                          Integer quantity) {
+    ArrayList<MatchEvent> events = new ArrayList<MatchEvent>();
+    Order seller = new Order(this.nextEntryId++, listing.getReservePrice(), quantity, new DoubleAuctionPair(user, listing));
+    while (!this.callMarket && seller.remaining > 0 && !this.bids.isEmpty() && this.bids.peek().price >= seller.price) {
+      Order buyer = this.bids.peek();
+      fill(seller, buyer, buyer.price, Math.min(seller.remaining, buyer.remaining), events);
+      if (buyer.remaining == 0) this.bids.poll();
+    }
+    if (seller.remaining > 0) this.asks.add(seller);
+    return events;
+  }
+
+  /*
+   * Call market clearing, once per tick. Every frontend sends its own
+   * call: later ones for the same tick get the same fills again without
+   * clearing anything, so each frontend can notify its own users; calls
+   * for an earlier tick get nothing.
+   *
+   * Demand at a price is the number of units bid at or above it, supply
+   * the number of units asked at or below it. Walking both curves from
+   * the top of the heaps (highest bids against lowest asks, unit counts
+   * added up as orders fill) while they still cross gives the largest
+   * volume that can trade at one price. Any price between the last ask
+   * filled (or the best bid left unfilled, if higher) and the last bid
+   * filled (or the best ask left unfilled, if lower) clears that volume;
+   * the middle of that range is used, so neither side gets all the
+   * surplus. O(k log n) for k orders filled; whatever is left (including
+   * the rest of a partly filled order) stays for the next tick.
+   *
+   * @return the fills made (empty if none)
+   */
+  public synchronized ArrayList<MatchEvent> clear(long tick) {
+    return clearLocked(tick);
   }
 
   /*
-   * Matches buyers with sellers
+   * clear(), for a thread clearing on behalf of another one that holds
+   * this book's monitor until it is done (see
+   * AuctionServerBackend.applyClearCallMarkets())
    */
-  public synchronized HashMap<Integer, HashMap<Integer, String>> closeDoubleAuction() {
-    HashMap<Integer, HashMap<Integer, String>> returnMap = new HashMap<Integer, HashMap<Integer, String>>();
-
-    // Sort sellers from highest to lowest minimum price
-    List<Integer> orderedListings = this.listings.entrySet()
-                    .stream()
-                    .sorted(compareBySellerPrice.reversed())
-                    .map(Map.Entry::getKey)
-                    .toList();
-
-    // Sort buyers from lowest to highest bid
-    List<Integer> orderedBids = this.userBids.entrySet()
-                    .stream()
-                    .sorted(Comparator.comparing(entry -> entry.getValue().getBid()))
-                    .map(Map.Entry::getKey)
-                    .toList();
-
-    try {
-      System.out.println("\n[DOUBLE AUCTION INFO]");
-      System.out.println("+ Item type: " + this.auctionItemType);
-      System.out.println("+ Listings: " + listings.size());
-      System.out.println("+ Bids: " + userBids.size());
-      int i = 0;
-      for (Integer sellerId: orderedListings) {
-        // A bid matches (>=) a reserve price from a seller
-        AuctionItem soldItem = listings.get(sellerId).getListing().getItem();
-        String soldString = null;
-        String boughtString = null;
-        if(listings.get(sellerId).getListing().getReservePrice() <= userBids.get(orderedBids.get(i)).getBid()) {
-          listings.get(sellerId).getListing().setCurrentPrice(userBids.get(orderedBids.get(i)).getBid());
-          listings.get(sellerId).getListing().setBestBidUser(userBids.get(orderedBids.get(i)).getUser().getUserName());
-
-          soldString = "> Your double auction item was sold: "
-                              + soldItem.getItemTitle()
-                              + " (" + soldItem.getItemType() + ")"
-                              + " || ID: " + soldItem.getItemId()
-                              + "\n> Sold for: "
-                              + listings.get(sellerId).getListing().getCurrentPrice()
-                              + " EUR\n"
-                              + "> Sold to: " + listings.get(sellerId).getListing().getBestBidUser();
-
-          boughtString = "> Your bid for "
-                              + soldItem.getItemTitle()
-                              + " (" + soldItem.getItemType() + ")"
-                              + " was succesful\n> Bid: "
-                              + listings.get(sellerId).getListing().getCurrentPrice()
-                              + " EUR\n"
-                              + "> Seller: " + listings.get(sellerId).getUser().getUserName();
-
-
-        } else {
-          soldString = "> Your double auction item was NOT sold: "
-                              + soldItem.getItemTitle()
-                              + " (" + soldItem.getItemType() + ")"
-                              + " || ID: " + soldItem.getItemId()
-                              + "\n> Listed for: "
-                              + listings.get(sellerId).getListing().getReservePrice();
-
-          boughtString = "> Your bid for item "
-                              + soldItem.getItemType()
-                              + " was NOT succesful\n> Bid: "
-                              + userBids.get(orderedBids.get(i)).getBid()
-                              + " EUR\n";
-        }
-        HashMap<Integer, String> soldMap = new HashMap<Integer, String>();
-        soldMap.put(listings.get(sellerId).getUser().getUserId(), soldString);
-        returnMap.put(sellerId, soldMap);
-        HashMap<Integer, String> boughtMap = new HashMap<Integer, String>();
-        boughtMap.put(userBids.get(orderedBids.get(i)).getUser().getUserId(), boughtString);
-        returnMap.put(orderedBids.get(i), boughtMap);
-        this.sellerCount--;
-        this.buyerCount--;
-        System.out.println("> Item: " + soldItem.getItemTitle()
-                            + " | Seller: " + listings.get(sellerId).getUser().getUserName()
-                            + " | Listed for: " + listings.get(sellerId).getListing().getReservePrice() + " EUR"
-                            + " | Buyer: " + listings.get(sellerId).getListing().getBestBidUser()
-                            + " | Price: " + ((listings.get(sellerId).getListing().getCurrentPrice() > 0.0f)
-                                      ? listings.get(sellerId).getListing().getCurrentPrice() + " EUR"
-                                      : "Not sold"));
-        i++;
-      }
-      System.out.println("\n");
-      removeAuctions();
-    } catch (Exception e) {
-      e.printStackTrace();
+  public ArrayList<MatchEvent> clearLocked(long tick) {
+    ArrayList<MatchEvent> events = new ArrayList<MatchEvent>();
+    if (!this.callMarket || tick < this.lastClearedTick) return events;
+    if (tick == this.lastClearedTick) {
+      if (this.lastClearEvents != null) events.addAll(this.lastClearEvents);
+      return events;
+    }
+    this.lastClearedTick = tick;
+    this.lastClearEvents = events;
+
+    // (seller, buyer, units), priced once the whole volume is known
+    ArrayList<Order[]> matches = new ArrayList<Order[]>();
+    ArrayList<Integer> units = new ArrayList<Integer>();
+    int volume = 0;
+    while (!this.bids.isEmpty() && !this.asks.isEmpty() && this.bids.peek().price >= this.asks.peek().price) {
+      Order buyer = this.bids.peek();
+      Order seller = this.asks.peek();
+      int matched = Math.min(buyer.remaining, seller.remaining);
+      matches.add(new Order[] { seller, buyer });
+      units.add(matched);
+      volume += matched;
+      buyer.remaining -= matched;
+      seller.remaining -= matched;
+      if (buyer.remaining == 0) this.bids.poll();
+      if (seller.remaining == 0) this.asks.poll();
+    }
+    if (matches.isEmpty()) return new ArrayList<MatchEvent>();
+
+    Order lastSeller = matches.get(matches.size() - 1)[0];
+    Order lastBuyer = matches.get(matches.size() - 1)[1];
+    float low = Math.max(lastSeller.price, this.bids.isEmpty() ? lastSeller.price : this.bids.peek().price);
+    float high = Math.min(lastBuyer.price, this.asks.isEmpty() ? lastBuyer.price : this.asks.peek().price);
+    float price = Math.min(high, Math.max(low, Math.round((low + high) * 50) / 100f));
+
+    System.out.println("[DOUBLE AUCTION INFO] " + this.auctionItemType + " call market tick " + tick
+                        + " | Matched: " + volume + " units | Clearing price: " + price + " EUR");
+    // The walk already took the units off the orders; fill() takes them
+    // off again, one match at a time, so each event has its own count
+    for (int i = 0; i < matches.size(); i++) {
+      matches.get(i)[0].remaining += units.get(i);
+      matches.get(i)[1].remaining += units.get(i);
+    }
+    for (int i = 0; i < matches.size(); i++) {
+      fill(matches.get(i)[0], matches.get(i)[1], price, units.get(i), events);
     }
-    return returnMap;
+    return new ArrayList<MatchEvent>(events);
   }
-  private void removeAuctions() {
-    this.listings.clear();
-    this.userBids.clear();
+
+  /*
+   * Sells "units" of the seller's items to the buyer at "price" each
+   */
+  private void fill(Order seller, Order buyer, float price, int units, ArrayList<MatchEvent> events) {
+    seller.remaining -= units;
+    buyer.remaining -= units;
+    AuctionListing listing = seller.pair.getListing();
+    AuctionItem soldItem = listing.getItem();
+    listing.setCurrentPrice(price);
+    listing.setBestBidUser(buyer.pair.getUser().getUserName());
+    events.add(new MatchEvent(seller.pair.getUser().getUserId(), buyer.pair.getUser().getUserId(),
+                              soldItem.getItemId(), price, buyer.price, units, seller.remaining, buyer.remaining,
+                              soldItem.getItemTitle(), soldItem.getItemType()));
   }
 
-  public HashMap<Integer, DoubleAuctionPair> getListings() { return this.listings; }
-  public HashMap<Integer, DoubleAuctionPair> getUserBids() { return this.userBids; }
+  /*
+   * One resting order: a buyer's bid or a seller's items at their reserve
+   * price, for one or more units
+   */
+  private static class Order implements Serializable {
+    private final int seq;
+    private final float price;
+    private final DoubleAuctionPair pair;
+    // Units not filled yet
+    private int remaining;
+
+    private Order(int seq, float price, Integer quantity, DoubleAuctionPair pair) {
+      this.seq = seq;
+      this.price = price;
+      this.remaining = (quantity == null) ? 1 : Math.max(1, quantity);
+      this.pair = pair;
+    }
+  }
 
-  public synchronized void addBuyer(AuctionUser user, Float bid) {
-    Integer buyerDoubleAuctionId = this.randomGenerator.nextInt(1000);
-    while(this.userBids.containsKey(buyerDoubleAuctionId)) {
-      buyerDoubleAuctionId = this.randomGenerator.nextInt();
+  // Comparators are serialized with the heaps (snapshots, state transfer)
+  private static class BidPriority implements Comparator<Order>, Serializable {
+    public int compare(Order a, Order b) {
+      int byPrice = Float.compare(b.price, a.price);
+      return (byPrice != 0) ? byPrice : Integer.compare(a.seq, b.seq);
     }
-    this.userBids.put(buyerDoubleAuctionId, new DoubleAuctionPair(user, bid));
-    this.buyerCount++;
   }
 
-  public synchronized void addSeller(AuctionUser user, AuctionListing listing) {
-    Integer sellerDoubleAuctionId = this.randomGenerator.nextInt(1000);
-    while(this.listings.containsKey(sellerDoubleAuctionId)) {
-      sellerDoubleAuctionId = this.randomGenerator.nextInt();
+  private static class AskPriority implements Comparator<Order>, Serializable {
+    public int compare(Order a, Order b) {
+      int byPrice = Float.compare(a.price, b.price);
+      return (byPrice != 0) ? byPrice : Integer.compare(a.seq, b.seq);
     }
-    this.listings.put(sellerDoubleAuctionId, new DoubleAuctionPair(user, listing));
-    this.sellerCount++;
   }
 }
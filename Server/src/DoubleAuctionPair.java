@@ -1,4 +1,6 @@
-public class DoubleAuctionPair {
+import java.io.Serializable;
+
+public class DoubleAuctionPair implements Serializable {
 
   private AuctionUser user;
   private AuctionListing listing;
@@ -1,36 +1,139 @@
+import org.jgroups.Address;
+import org.jgroups.Channel;
 import org.jgroups.JChannel;
+import org.jgroups.protocols.MFC;
+import org.jgroups.protocols.SEQUENCER;
+import org.jgroups.protocols.pbcast.GMS;
+import org.jgroups.stack.ProtocolStack;
+import org.jgroups.util.FutureListener;
+import org.jgroups.util.NotifyingFuture;
+import org.jgroups.util.Rsp;
 import org.jgroups.util.RspList;
+import org.jgroups.util.Util;
 
+import org.jgroups.blocks.MethodCall;
 import org.jgroups.blocks.RpcDispatcher;
 import org.jgroups.blocks.ResponseMode;
 import org.jgroups.blocks.RequestOptions;
+import org.jgroups.blocks.RspFilter;
 
+import java.io.File;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.WeakHashMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
 
 public class GroupUtils {
 
+  // Channel name prefixes, telling backend replicas apart from frontends
+  public static final String BACKEND_ROLE = "backend";
+  public static final String FRONTEND_ROLE = "frontend";
+
+  // Where ANY reads and designated MAJORITY answers go, one selector per
+  // dispatcher: each shard has its own replicas, and a process may run
+  // several frontends
+  private static final Map<RpcDispatcher, ReplicaSelector> READ_SELECTORS =
+      Collections.synchronizedMap(new WeakHashMap<RpcDispatcher, ReplicaSelector>());
+
+  // In-flight window for backend calls (see executeBackendReplicaCallAsync)
+  private static final int MAX_IN_FLIGHT = System.getenv("MAX_IN_FLIGHT") == null
+      ? 256 : Integer.parseInt(System.getenv("MAX_IN_FLIGHT"));
+  private static final Semaphore IN_FLIGHT = new Semaphore(MAX_IN_FLIGHT);
+
+  // Protocol stack presets (udp, tcp, shared_loopback), see stackConfig()
+  public static final String DEFAULT_STACK = "udp";
+  private static final String STACK_DIR = System.getenv("JGROUPS_STACK_DIR") == null
+      ? "../stacks" : System.getenv("JGROUPS_STACK_DIR");
+
+  // Backend shards (see ShardRing), each one a replica group of its own
+  public static final int SHARD_COUNT = System.getenv("SHARD_COUNT") == null
+      ? 1 : Integer.parseInt(System.getenv("SHARD_COUNT"));
+
+  // Only actual answers count towards GET_FIRST: a replica
+  // that is still joining answers null, a frontend throws NoSuchMethod
+  private static final RspFilter REPLICA_ANSWERS = new RspFilter() {
+    public boolean isAcceptable(Object response, Address sender) { return isAnswer(response); }
+    public boolean needMoreResponses() { return true; }
+  };
+
   /**
    * Returns a JGroup Channel in which a connection has already been established.
    * The channel name is taken from the "GROUP" env var, or a default is used if
-   * no var present. note: this channel will discard self messages.
+   * no var present (sharded backends pass their shard's group, see shardGroup()).
+   * note: this channel will discard self messages.
+   * The member is named after its role (e.g. "backend-xyz"), see backendMembers().
+   * The protocol stack is picked by stackConfig(). Every stack needs
+   * SEQUENCER (the presets have it just below FRAG2, as in sequencer.xml,
+   * and it is added to stacks without it): every multicast goes through
+   * the coordinator, so all members deliver them in the same order.
+   * Backends apply writes in that order and stay identical (see
+   * BackendDispatcher).
    * 
    * @return the connected jgroups channel or null if an error occurred.
    */
-  public static JChannel connect() {
-    String channelName = System.getenv("GROUP") == null ? "DEFAULT_GROUP" : System.getenv("GROUP");
+  public static JChannel connect(String role) { return connect(role, groupName()); }
+
+  public static JChannel connect(String role, String channelName) {
     try {
-      JChannel channel = new JChannel();
+      String stack = stackConfig();
+      JChannel channel = (stack == null) ? new JChannel() : new JChannel(stack);
+      if (channel.getProtocolStack().findProtocol(SEQUENCER.class) == null) {
+        SEQUENCER sequencer = new SEQUENCER();
+        sequencer.setProtocolStack(channel.getProtocolStack());
+        // Above flow control when the stack has it, else above GMS
+        boolean hasMfc = channel.getProtocolStack().findProtocol(MFC.class) != null;
+        channel.getProtocolStack().insertProtocol(sequencer, ProtocolStack.ABOVE, hasMfc ? MFC.class : GMS.class);
+      }
+      channel.setName(role + "-" + Util.generateLocalName());
       channel.connect(channelName);
       System.out.printf("✅ connected to jgroups channel: %s\n", channelName);
       channel.setDiscardOwnMessages(true);
       return channel;
     } catch (Exception e) {
       System.err.printf("🆘 could not connect to jgroups channel: %s\n", channelName);
+      e.printStackTrace();
     }
     return null;
   }
 
+  /**
+   * Protocol stack named by the "JGROUPS_STACK" env var: one of the
+   * presets in STACK_DIR (udp, tcp, shared_loopback) or the path of any
+   * JGroups XML config. Defaults to the udp preset.
+   *
+   * @return the config to build the channel from, or null for JGroups'
+   *         own default stack (no env var and no presets next to us)
+   */
+  public static String stackConfig() { return stackConfig(System.getenv("JGROUPS_STACK")); }
+
+  public static String stackConfig(String stack) {
+    File preset = new File(STACK_DIR, ((stack == null) ? DEFAULT_STACK : stack) + ".xml");
+    if (preset.isFile()) return preset.getPath();
+    return stack;
+  }
+
+  public static String groupName() {
+    return System.getenv("GROUP") == null ? "DEFAULT_GROUP" : System.getenv("GROUP");
+  }
+
+  /*
+   * Group of one backend shard: "<GROUP>-shard-<n>", or just the
+   * group name when the backend is not sharded (SHARD_COUNT of 1)
+   */
+  public static String shardGroup(int shard) {
+    return (SHARD_COUNT <= 1) ? groupName() : groupName() + "-shard-" + shard;
+  }
+
   /**
    * Check whether backend replicas return the same response
    * @return if consistent across replicas, returns the T object
@@ -43,6 +146,158 @@ public class GroupUtils {
     return firstResponse;
   }
 
+  /**
+   * Backend replicas in the current view (frontends share the group)
+   */
+  public static List<Address> backendMembers(RpcDispatcher dispatcher) {
+    Channel channel = dispatcher.getChannel();
+    List<Address> backends = new ArrayList<Address>();
+    for (Address member : channel.getView().getMembers()) {
+      String name = channel.getName(member);
+      if (name != null && name.startsWith(BACKEND_ROLE)) backends.add(member);
+    }
+    return backends;
+  }
+
+  private static boolean isAnswer(Object response) {
+    return response != null && !(response instanceof Throwable);
+  }
+
+  /**
+   * First actual answer among the responses
+   * @return the T object, or null if no replica answered
+   */
+  public static <T> T matchFirstReplicaResponse(RspList<T> responses) {
+    for (Rsp<T> response : responses.values()) {
+      if (response.wasReceived() && isAnswer(response.getValue())) return response.getValue();
+    }
+    return null;
+  }
+
+  /**
+   * Answer shared by a majority of the backend replicas. Replicas that
+   * answered something else are added to "divergent".
+   * @return the T object, or null if no answer has a majority
+   */
+  public static <T> T matchMajorityReplicaResponses(RspList<T> responses, int replicas,
+                                                     List<Address> divergent) {
+    List<T> answers = new ArrayList<T>();
+    List<Integer> votes = new ArrayList<Integer>();
+    for (Rsp<T> response : responses.values()) {
+      if (!response.wasReceived() || !isAnswer(response.getValue())) continue;
+      int i = answers.indexOf(response.getValue());
+      if (i < 0) { answers.add(response.getValue()); votes.add(1); }
+      else votes.set(i, votes.get(i) + 1);
+    }
+    T majority = null;
+    for (int i = 0; i < answers.size(); i++) {
+      if (votes.get(i) >= replicas / 2 + 1) majority = answers.get(i);
+    }
+    if (majority == null) return null;
+    for (Map.Entry<Address, Rsp<T>> entry : responses.entrySet()) {
+      Rsp<T> response = entry.getValue();
+      if (response.wasReceived() && isAnswer(response.getValue()) && !majority.equals(response.getValue())) {
+        divergent.add(entry.getKey());
+      }
+    }
+    return majority;
+  }
+
+  /*
+   * Counts the replicas' answers as they arrive. The decision completes as
+   * soon as one answer has a majority (with null if every replica answered
+   * without one); the request itself still waits for every replica, so
+   * late answers can be checked too.
+   */
+  private static class MajorityVote implements RspFilter {
+    private final int replicas;
+    private final Address designated;
+    private final long startTime = System.nanoTime();
+    private final List<Object> answers = new ArrayList<Object>();
+    private final List<Address> firstSenders = new ArrayList<Address>();
+    private final List<Integer> votes = new ArrayList<Integer>();
+    private final CompletableFuture<Object> decision = new CompletableFuture<Object>();
+    private int received;
+    private Object majority;
+    private Address majoritySender;
+    private Object designatedAnswer;
+    private long designatedLatency = -1;
+
+    MajorityVote(int replicas, Address designated) {
+      this.replicas = replicas;
+      this.designated = designated;
+    }
+
+    public synchronized boolean isAcceptable(Object response, Address sender) {
+      this.received++;
+      if (sender.equals(this.designated)) {
+        this.designatedAnswer = response;
+        this.designatedLatency = System.nanoTime() - this.startTime;
+      }
+      if (isAnswer(response)) {
+        int i = this.answers.indexOf(response);
+        if (i < 0) {
+          this.answers.add(response);
+          this.firstSenders.add(sender);
+          this.votes.add(1);
+          i = this.answers.size() - 1;
+        } else {
+          this.votes.set(i, this.votes.get(i) + 1);
+        }
+        if (this.majority == null && this.votes.get(i) >= this.replicas / 2 + 1) {
+          this.majority = response;
+          this.majoritySender = this.firstSenders.get(i);
+        }
+      }
+      if (this.majority != null || this.received == this.replicas) this.decision.complete(this.majority);
+      return isAnswer(response);
+    }
+
+    public boolean needMoreResponses() { return true; }
+
+    CompletableFuture<Object> getDecision() { return this.decision; }
+
+    synchronized Address getMajoritySender() { return this.majoritySender; }
+
+    synchronized Object getDesignatedAnswer() { return this.designatedAnswer; }
+
+    // Time the designated replica took to answer (so far, if it has not)
+    synchronized long getDesignatedLatency() {
+      return (this.designatedLatency < 0) ? System.nanoTime() - this.startTime : this.designatedLatency;
+    }
+  }
+
+  // A JGroups call that reports to a listener once done
+  private interface AsyncCall<R> {
+    NotifyingFuture<R> send(FutureListener<R> listener) throws Exception;
+  }
+
+  /*
+   * Bridges a JGroups call to a CompletableFuture, completed with null
+   * after "timeout" ms. JGroups only times out calls that someone blocks
+   * on, so the call is cancelled then as well, dropping the pending request.
+   */
+  private static <R> CompletableFuture<R> toCompletable(AsyncCall<R> call, int timeout) throws Exception {
+    CompletableFuture<R> result = new CompletableFuture<R>();
+    NotifyingFuture<R> future = call.send(done -> {
+      try {
+        result.complete(done.get());
+      } catch (ExecutionException e) {
+        result.completeExceptionally(e.getCause());
+      } catch (Exception e) {
+        result.completeExceptionally(e);
+      }
+    });
+    result.completeOnTimeout(null, timeout, TimeUnit.MILLISECONDS)
+          .whenComplete((response, error) -> future.cancel(true));
+    return result;
+  }
+
+  /**
+   * Calls a backend method on the replicas, waiting for as many of them as
+   * the consistency mode needs. Synchronous form of
+   * executeBackendReplicaCallAsync(), for the RMI methods.
+   */
   public static <T> T executeBackendReplicaCall(
                                           String nodeType,
                                           String backendMethodName,
@@ -51,45 +306,214 @@ public class GroupUtils {
                                           Class<?>[] paramTypes,
                                           RpcDispatcher dispatcher,
                                           int dispTimeout,
-                                          Boolean isNotificationForSubs
+                                          ConsistencyMode mode
   ) {
-    System.out.println("📩 " + nodeType + " " + backendMethodName + "() function request via rmi\n");
     try {
-      RspList<T> responses = dispatcher.callRemoteMethods(null, backendMethodName,
-        params, paramTypes,
-        new RequestOptions(ResponseMode.GET_ALL, dispTimeout));
-
-      if (isNotificationForSubs) {
-        return GroupUtils.matchDoubleAuctionResponses(responses);
-      }
-      return GroupUtils.matchAllReplicaResponses(responses);
-    } catch (Exception e) {
+      return executeBackendReplicaCallAsync(nodeType, backendMethodName, valueType, params, paramTypes,
+                                            dispatcher, dispTimeout, mode).join();
+    } catch (CompletionException e) {
       System.err.println("🆘 " + nodeType + " " + backendMethodName + "() dispatcher exception:");
-      e.printStackTrace();
+      e.getCause().printStackTrace();
     }
     return null;
   }
 
   /**
-   * Method specific for double auction return notifications 
-   * for pub-sub system
+   * Calls a backend method on the replicas without blocking the caller.
+   * How many replicas the call waits for depends on the consistency mode:
+   * - ALL: every replica, all answers must match
+   * - MAJORITY: a majority of matching answers; the remaining answers are
+   *   checked as they arrive, and replicas answering differently are asked
+   *   to repair their state instead of failing the call. Replicas answer
+   *   with a digest of the result, and only one of them (the least loaded)
+   *   sends the result itself, see ReplicaAnswer.
+   * - FIRST: the first replica to answer
+   * - ANY: a single replica, sent only to it (reads)
+   * Except for ANY, the request is still multicast to every replica, so
+   * writes reach all of them; only the wait is shorter.
+   *
+   * At most MAX_IN_FLIGHT calls are outstanding at once. Past that, the
+   * caller waits for a slot (up to dispTimeout), so a flood of requests
+   * slows callers down instead of piling up on the backends.
+   *
+   * @return future of the T object, completed with null if the replicas
+   *         gave no usable answer in time
    */
-  public static <T> T matchDoubleAuctionResponses(RspList<T> responses) {
-    if (responses.isEmpty()) return null;
-    T firstResponse = responses.getFirst();
-    for (T response : responses.getResults()) {
-      if (firstResponse instanceof HashMap<?,?> && response instanceof HashMap<?,?>) {
-        HashMap<?,?> firstResponseMap = (HashMap<?,?>) firstResponse;
-        HashMap<?,?> responseMap = (HashMap<?,?>) response;
-        if (firstResponseMap.values() instanceof HashMap<?,?> && responseMap.values() instanceof HashMap<?,?>) {
-          HashMap<?,?> nestedFirstResponseMap = (HashMap<?,?>) firstResponseMap;
-          HashMap<?,?> nestedResponseMap = (HashMap<?,?>) responseMap;
-          if (!nestedFirstResponseMap.values().equals(nestedResponseMap.values())) {
-            return null; 
+  public static <T> CompletableFuture<T> executeBackendReplicaCallAsync(
+                                          String nodeType,
+                                          String backendMethodName,
+                                          T valueType,
+                                          Object[] params,
+                                          Class<?>[] paramTypes,
+                                          RpcDispatcher dispatcher,
+                                          int dispTimeout,
+                                          ConsistencyMode mode
+  ) {
+    System.out.println("📩 " + nodeType + " " + backendMethodName + "() function request via rmi\n");
+    try {
+      if (!IN_FLIGHT.tryAcquire(dispTimeout, TimeUnit.MILLISECONDS)) {
+        return CompletableFuture.failedFuture(
+          new RejectedExecutionException(MAX_IN_FLIGHT + " backend calls already in flight"));
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return CompletableFuture.failedFuture(e);
+    }
+    CompletableFuture<T> call;
+    try {
+      call = startBackendCall(nodeType, backendMethodName, params, paramTypes, dispatcher, dispTimeout, mode);
+    } catch (Exception e) {
+      call = CompletableFuture.failedFuture(e);
+    }
+    return call.whenComplete((response, error) -> IN_FLIGHT.release());
+  }
+
+  private static <T> CompletableFuture<T> startBackendCall(String nodeType, String backendMethodName,
+                                                           Object[] params, Class<?>[] paramTypes,
+                                                           RpcDispatcher dispatcher, int dispTimeout,
+                                                           ConsistencyMode mode) throws Exception {
+    MethodCall call = new MethodCall(backendMethodName, params, paramTypes);
+    if (mode == ConsistencyMode.ALL) {
+      CompletableFuture<RspList<T>> responses = toCompletable(listener -> dispatcher.callRemoteMethodsWithFuture(
+        null, call, new RequestOptions(ResponseMode.GET_ALL, dispTimeout), listener), dispTimeout);
+      return responses.thenApply(all -> (all == null) ? null : GroupUtils.matchAllReplicaResponses(all));
+    }
+    List<Address> backends = backendMembers(dispatcher);
+    if (backends.isEmpty()) {
+      System.err.println("🆘 " + nodeType + " " + backendMethodName + "(): no backend replica in view");
+      return CompletableFuture.completedFuture(null);
+    }
+    switch (mode) {
+      case ANY:
+        // No answer from that replica (joining, repairing or gone): ask them all
+        return GroupUtils.<T>anycastBackendCall(nodeType, backendMethodName, call, dispatcher, dispTimeout, backends)
+          .thenCompose(response -> (response != null)
+            ? CompletableFuture.completedFuture(response)
+            : firstBackendCall(call, dispatcher, dispTimeout, backends));
+      case FIRST:
+        return firstBackendCall(call, dispatcher, dispTimeout, backends);
+      default:
+        return majorityBackendCall(nodeType, backendMethodName, params, paramTypes, dispatcher, dispTimeout, backends);
+    }
+  }
+
+  private static <T> CompletableFuture<T> firstBackendCall(MethodCall call, RpcDispatcher dispatcher,
+                                                           int dispTimeout, List<Address> backends) {
+    try {
+      CompletableFuture<RspList<T>> responses = toCompletable(listener -> dispatcher.callRemoteMethodsWithFuture(
+        backends, call, new RequestOptions(ResponseMode.GET_FIRST, dispTimeout).setRspFilter(REPLICA_ANSWERS),
+        listener), dispTimeout);
+      return responses.thenApply(first -> (first == null) ? null : GroupUtils.matchFirstReplicaResponse(first));
+    } catch (Exception e) {
+      return CompletableFuture.failedFuture(e);
+    }
+  }
+
+  private static ReplicaSelector readSelector(RpcDispatcher dispatcher) {
+    return READ_SELECTORS.computeIfAbsent(dispatcher, d -> new ReplicaSelector());
+  }
+
+  /*
+   * Sends the call to the least loaded replica only
+   * @return future of its answer, null if it had none
+   */
+  private static <T> CompletableFuture<T> anycastBackendCall(String nodeType, String backendMethodName,
+                                                             MethodCall call, RpcDispatcher dispatcher,
+                                                             int dispTimeout, List<Address> backends) throws Exception {
+    ReplicaSelector selector = readSelector(dispatcher);
+    Address replica = selector.choose(backends);
+    long startTime = System.nanoTime();
+    CompletableFuture<T> response = toCompletable(listener -> dispatcher.<T>callRemoteMethodWithFuture(
+      replica, call, new RequestOptions(ResponseMode.GET_FIRST, dispTimeout), listener), dispTimeout);
+    return response.handle((answer, error) -> {
+      // A timeout counts in full against the replica, so it is picked less often
+      selector.done(replica, System.nanoTime() - startTime);
+      if (error != null) {
+        System.err.printf("🆘 %s %s(): replica %s did not answer (%s)\n", nodeType, backendMethodName, replica, error);
+        return null;
+      }
+      return answer;
+    });
+  }
+
+  /*
+   * Replicas answer with digests, the designated (least loaded) one with
+   * the result too
+   */
+  private static <T> CompletableFuture<T> majorityBackendCall(String nodeType, String backendMethodName,
+                                                              Object[] params, Class<?>[] paramTypes,
+                                                              RpcDispatcher dispatcher, int dispTimeout,
+                                                              List<Address> backends) throws Exception {
+    int replicas = backends.size();
+    String requestId = UUID.randomUUID().toString();
+    ReplicaSelector selector = readSelector(dispatcher);
+    Address designated = selector.choose(backends);
+    MajorityVote vote = new MajorityVote(replicas, designated);
+    NotifyingFuture<RspList<ReplicaAnswer>> request = dispatcher.callRemoteMethodsWithFuture(backends,
+      new MethodCall("digestedCallBackend",
+        new Object[] { requestId, BackendDispatcher.addressKey(designated), backendMethodName,
+                       params, paramTypes },
+        new Class[] { String.class, String.class, String.class, Object[].class, Class[].class }),
+      new RequestOptions(ResponseMode.GET_ALL, dispTimeout).setRspFilter(vote),
+      done -> {
+        // Every replica answered: repair the odd ones out
+        try {
+          RspList<ReplicaAnswer> responses = done.get();
+          List<Address> divergent = new ArrayList<Address>();
+          ReplicaAnswer majority = GroupUtils.matchMajorityReplicaResponses(responses, replicas, divergent);
+          if (majority != null && !divergent.isEmpty()) {
+            requestRepair(nodeType, backendMethodName, responses, majority, divergent, dispatcher);
           }
+        } catch (Exception e) {
+          System.err.println("🆘 " + nodeType + " " + backendMethodName + "() dispatcher exception:");
+          e.printStackTrace();
         }
+      });
+    // Stop waiting for replicas that have not answered by the timeout
+    CompletableFuture.delayedExecutor(dispTimeout, TimeUnit.MILLISECONDS).execute(() -> request.cancel(true));
+
+    return vote.getDecision().completeOnTimeout(null, dispTimeout, TimeUnit.MILLISECONDS).thenCompose(decision -> {
+      selector.done(designated, vote.getDesignatedLatency());
+      ReplicaAnswer majority = (ReplicaAnswer) decision;
+      if (majority == null) return CompletableFuture.completedFuture(null);
+      ReplicaAnswer designatedAnswer = (ReplicaAnswer) vote.getDesignatedAnswer();
+      if (majority.equals(designatedAnswer)) return CompletableFuture.completedFuture(designatedAnswer);
+      // The designated replica was late or wrong: get the result from the majority
+      try {
+        return GroupUtils.<ReplicaAnswer>toCompletable(listener -> dispatcher.callRemoteMethodWithFuture(
+          vote.getMajoritySender(), new MethodCall("fetchAnswerBackend", new Object[] { requestId }, new Class[] { String.class }),
+          new RequestOptions(ResponseMode.GET_FIRST, dispTimeout), listener), dispTimeout);
+      } catch (Exception e) {
+        return CompletableFuture.<ReplicaAnswer>failedFuture(e);
+      }
+    }).thenApply(full -> {
+      try {
+        return (full == null) ? null : full.<T>getPayload();
+      } catch (Exception e) {
+        throw new CompletionException(e);
       }
+    });
+  }
+
+  /*
+   * Asks the divergent replicas to reload their state from one of the
+   * replicas in the majority (fire and forget)
+   */
+  private static <T> void requestRepair(String nodeType, String backendMethodName, RspList<T> responses,
+                                        T majority, List<Address> divergent, RpcDispatcher dispatcher) {
+    Address donor = null;
+    for (Map.Entry<Address, Rsp<T>> entry : responses.entrySet()) {
+      if (majority.equals(entry.getValue().getValue())) { donor = entry.getKey(); break; }
+    }
+    System.out.printf("👀 %s %s(): replicas %s diverged from the majority, repairing from %s\n",
+                      nodeType, backendMethodName, divergent, donor);
+    try {
+      dispatcher.callRemoteMethods(divergent, "repairStateBackend",
+        new Object[] { BackendDispatcher.addressKey(donor) }, new Class[] { String.class },
+        new RequestOptions(ResponseMode.GET_NONE, 0).setAnycasting(true));
+    } catch (Exception e) {
+      System.err.println("🆘 " + nodeType + " could not request replica repair:");
+      e.printStackTrace();
     }
-    return firstResponse;
   }
 }
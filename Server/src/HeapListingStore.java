@@ -0,0 +1,27 @@
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+public class HeapListingStore implements ListingStore {
+
+  private final ConcurrentHashMap<Integer, CompactListing> listings;
+
+  /*
+   * Default store: listings live on the heap, keyed by item id
+   */
+  public HeapListingStore() {
+    this.listings = new ConcurrentHashMap<Integer, CompactListing>();
+  }
+
+  public void put(CompactListing listing) { this.listings.put(listing.getItemId(), listing); }
+  public CompactListing get(int itemId) { return this.listings.get(itemId); }
+  public boolean contains(int itemId) { return this.listings.containsKey(itemId); }
+  public CompactListing remove(int itemId) { return this.listings.remove(itemId); }
+  public int size() { return this.listings.size(); }
+  public void forEach(Consumer<CompactListing> action) { this.listings.values().forEach(action); }
+  public void clear() { this.listings.clear(); }
+
+  /*
+   * Listings are mutated in place, nothing to write back
+   */
+  public void update(CompactListing listing) {}
+}
@@ -0,0 +1,89 @@
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.BiFunction;
+
+public class IdBlockAllocator {
+
+  // Kinds of ids
+  public static final String USER_IDS = "user";
+  public static final String ITEM_IDS = "item";
+
+  // Leases run here, so no caller waits for one while holding the allocator
+  private static final ExecutorService LEASES = Executors.newCachedThreadPool(task -> {
+    Thread thread = new Thread(task, "id-lease");
+    thread.setDaemon(true);
+    return thread;
+  });
+
+  private final String kind;
+  private final int blockSize;
+  private final int stride;
+  private final BiFunction<String, Integer, Long> leaser;
+
+  // Current block, every stride-th id in [next, end)
+  private long next;
+  private long end;
+  // Lease of the following block, started once half the current one is used
+  private CompletableFuture<Long> pending;
+
+  /**
+   * Hands out unique ids of one kind from blocks leased by the backends
+   *
+   * The oldest backend replica leases each block to one frontend only, and
+   * records it on the other replicas first (see leaseIdBlockBackend). The
+   * frontend then assigns ids from its block without asking anyone, and
+   * sends them along with the request, so every replica uses the same id.
+   * The next block is leased in the background once half of the current
+   * one is used, so callers normally never wait for a round trip.
+   *
+   * A block holds blockSize ids, stride apart from its first one: item
+   * ids are dealt out over the shards that way, so the shard of an item
+   * follows from its id (see ShardRing.shardForItem).
+   *
+   * Blocks are numbered in 64 bits; ids are still handed out as Integer,
+   * which is what users and listings use (and the client API exposes).
+   */
+  public IdBlockAllocator(String kind, int blockSize, int stride, BiFunction<String, Integer, Long> leaser) {
+    this.kind = kind;
+    this.blockSize = Math.max(1, blockSize);
+    this.stride = Math.max(1, stride);
+    this.leaser = leaser;
+    this.next = 0;
+    this.end = 0;
+  }
+
+  /*
+   * Next id, or null if a new block was needed and could not be leased
+   */
+  public Integer next() {
+    while (true) {
+      CompletableFuture<Long> lease;
+      synchronized (this) {
+        if (this.next < this.end) {
+          long id = this.next;
+          this.next += this.stride;
+          if ((this.end - this.next) / this.stride <= this.blockSize / 2 && this.pending == null) startLease();
+          if (id > Integer.MAX_VALUE) throw new IllegalStateException("no " + this.kind + " ids left");
+          return (int) id;
+        }
+        if (this.pending == null) startLease();
+        lease = this.pending;
+      }
+      // Block used up: wait for the lease outside the monitor
+      Long start = lease.join();
+      synchronized (this) {
+        if (this.pending != lease) continue;  // another caller already took it
+        this.pending = null;
+        if (start == null) return null;
+        this.next = start;
+        this.end = start + (long) this.blockSize * this.stride;
+      }
+    }
+  }
+
+  private void startLease() {
+    this.pending = CompletableFuture.supplyAsync(() -> this.leaser.apply(this.kind, this.blockSize), LEASES)
+                                    .exceptionally(error -> null);
+  }
+}
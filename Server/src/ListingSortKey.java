@@ -0,0 +1,56 @@
+import java.util.Objects;
+
+public class ListingSortKey implements Comparable<ListingSortKey> {
+
+  private final long priceCents;
+  private final int itemId;
+
+  /*
+   * Position of a listing in its category's price index:
+   * effective price first, item id as tie breaker.
+   */
+  public ListingSortKey(long priceCents, int itemId) {
+    this.priceCents = priceCents;
+    this.itemId = itemId;
+  }
+
+  public static ListingSortKey of(CompactListing listing) {
+    return new ListingSortKey(listing.getEffectiveCents(), listing.getItemId());
+  }
+
+  /*
+   * Cursor tokens are "<price cents>:<id>"
+   */
+  public String toCursor() {
+    return this.priceCents + ":" + this.itemId;
+  }
+
+  public static ListingSortKey fromCursor(String cursor) {
+    try {
+      String[] parts = cursor.split(":");
+      return new ListingSortKey(Long.parseLong(parts[0]), Integer.parseInt(parts[1]));
+    } catch (Exception e) {
+      return null;
+    }
+  }
+
+  public long getPriceCents() { return this.priceCents; }
+  public int getItemId() { return this.itemId; }
+
+  @Override
+  public int compareTo(ListingSortKey other) {
+    int byPrice = Long.compare(this.priceCents, other.priceCents);
+    return (byPrice != 0) ? byPrice : Integer.compare(this.itemId, other.itemId);
+  }
+
+  @Override
+  public boolean equals(Object obj) {
+    if (this == obj) return true;
+    if (obj == null || getClass() != obj.getClass()) return false;
+    ListingSortKey other = (ListingSortKey) obj;
+    return compareTo(other) == 0;
+  }
+
+  @Override
+  public int hashCode() { return Objects.hash(priceCents, itemId); }
+}
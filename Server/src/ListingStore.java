@@ -0,0 +1,48 @@
+import java.util.function.Consumer;
+
+/*
+ * Storage engine for the backend's forward auction listings.
+ *
+ * Callers serialise access to any single item id (the backend holds the
+ * listing's lock stripe). get() may return a copy, so a mutated listing
+ * must be written back with update().
+ */
+public interface ListingStore {
+
+  public void put(CompactListing listing);
+
+  public CompactListing get(int itemId);
+
+  public boolean contains(int itemId);
+
+  public CompactListing remove(int itemId);
+
+  public void update(CompactListing listing);
+
+  public int size();
+
+  public void forEach(Consumer<CompactListing> action);
+
+  public void clear();
+
+  /**
+   * Creates the store selected by the "LISTING_STORE" env var:
+   * "heap" (default) or "mapped". The mapped store keeps its files in
+   * "LISTING_STORE_DIR" (default ./listing-store).
+   */
+  public static ListingStore fromEnvironment() {
+    String mode = System.getenv("LISTING_STORE") == null ? "heap" : System.getenv("LISTING_STORE");
+    if (mode.equalsIgnoreCase("mapped")) {
+      String dir = System.getenv("LISTING_STORE_DIR") == null ? "./listing-store" : System.getenv("LISTING_STORE_DIR");
+      try {
+        ListingStore store = new MappedListingStore(dir);
+        System.out.printf("✅ using memory-mapped listing store in: %s\n", dir);
+        return store;
+      } catch (Exception e) {
+        System.err.printf("🆘 could not open memory-mapped listing store in %s, using heap store\n", dir);
+        e.printStackTrace();
+      }
+    }
+    return new HeapListingStore();
+  }
+}
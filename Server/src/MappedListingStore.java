@@ -0,0 +1,445 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+
+public class MappedListingStore implements ListingStore {
+
+  // Fixed-size listing record layout (byte offsets)
+  private static final int RECORD_SIZE = 64;
+  private static final int OFF_ITEM_ID = 0;
+  private static final int OFF_IN_USE = 4;
+  private static final int OFF_TYPE = 5;
+  private static final int OFF_CONDITION = 6;
+  private static final int OFF_STARTING = 8;
+  private static final int OFF_RESERVE = 16;
+  private static final int OFF_CURRENT = 24;
+  private static final int OFF_BIDDER = 32;
+  private static final int OFF_TITLE = 40;
+  private static final int OFF_DESCRIPTION = 48;
+
+  private static final int SEGMENT_SIZE = 64 * 1024 * 1024;
+  private static final int RECORDS_PER_SEGMENT = SEGMENT_SIZE / RECORD_SIZE;
+  private static final long NO_STRING = -1L;
+  // Dead string bytes tolerated before compacting (at least as many as live ones)
+  private static final long COMPACT_MIN_BYTES = 1024 * 1024;
+
+  // Off-heap id index: open addressing, linear probing, (int id, int slot) entries
+  private static final int INDEX_ENTRY_SIZE = 8;
+  private static final int INITIAL_INDEX_CAPACITY = 1 << 16;
+  private static final int EMPTY = -1;
+  private static final int TOMBSTONE = -2;
+
+  private final FileChannel recordChannel;
+  private final FileChannel stringChannel;
+  private final ArrayList<MappedByteBuffer> recordSegments;
+  private final ArrayList<MappedByteBuffer> stringSegments;
+  private final ConcurrentHashMap<Integer, AuctionBidLog> bidLogs;
+  private final ReentrantReadWriteLock lock;
+
+  private ByteBuffer index;
+  private int indexCapacity;
+  private int indexOccupied;
+  private int size;
+  private int highWaterSlot;
+  private int[] freeSlots;
+  private int freeCount;
+  private long stringTail;
+  private long liveStringBytes;
+
+  /**
+   * Listing store backed by memory-mapped files
+   *
+   * Listings are fixed-size records in "listings.dat", located through an
+   * off-heap open-addressing id index. Titles and descriptions are appended
+   * to "listing-strings.dat" and records hold their offsets; once strings
+   * of removed or rewritten listings take more room than live ones, the
+   * live ones are moved down over them (see compactStrings()), so the file
+   * stays within about twice the live strings. Bid logs stay on the heap. Both files are scratch space: they are truncated on start,
+   * since replica state comes from the group (or the WAL) on startup.
+   */
+  public MappedListingStore(String directory) throws IOException {
+    File dir = new File(directory);
+    if (!dir.isDirectory() && !dir.mkdirs()) {
+      throw new IOException("Cannot create listing store directory " + directory);
+    }
+    this.recordChannel = openTruncated(new File(dir, "listings.dat"));
+    this.stringChannel = openTruncated(new File(dir, "listing-strings.dat"));
+    this.recordSegments = new ArrayList<MappedByteBuffer>();
+    this.stringSegments = new ArrayList<MappedByteBuffer>();
+    this.bidLogs = new ConcurrentHashMap<Integer, AuctionBidLog>();
+    this.lock = new ReentrantReadWriteLock();
+    reset();
+  }
+
+  private static FileChannel openTruncated(File file) throws IOException {
+    RandomAccessFile raf = new RandomAccessFile(file, "rw");
+    raf.setLength(0);
+    return raf.getChannel();
+  }
+
+  private void reset() {
+    this.index = newIndex(INITIAL_INDEX_CAPACITY);
+    this.indexCapacity = INITIAL_INDEX_CAPACITY;
+    this.indexOccupied = 0;
+    this.size = 0;
+    this.highWaterSlot = 0;
+    this.freeSlots = new int[1024];
+    this.freeCount = 0;
+    this.stringTail = 0;
+    this.liveStringBytes = 0;
+    this.bidLogs.clear();
+  }
+
+  public void put(CompactListing listing) {
+    this.lock.writeLock().lock();
+    try {
+      int slot = findSlot(listing.getItemId());
+      if (slot < 0) {
+        slot = allocateSlot();
+        indexInsert(listing.getItemId(), slot);
+        this.size++;
+      } else {
+        releaseStrings(slot);
+      }
+      ByteBuffer segment = recordSegment(slot);
+      int base = recordOffset(slot);
+      // Not in use while its strings are rewritten, so compaction skips it
+      segment.put(base + OFF_IN_USE, (byte) 0);
+      maybeCompactStrings();
+      segment.putInt(base + OFF_ITEM_ID, listing.getItemId());
+      segment.put(base + OFF_IN_USE, (byte) 1);
+      segment.put(base + OFF_TYPE, (byte) listing.getItemType().ordinal());
+      segment.put(base + OFF_CONDITION, (byte) listing.getCondition());
+      segment.putLong(base + OFF_STARTING, listing.getStartingCents());
+      segment.putLong(base + OFF_RESERVE, listing.getReserveCents());
+      segment.putLong(base + OFF_TITLE, appendString(listing.getTitle()));
+      segment.putLong(base + OFF_DESCRIPTION, appendString(listing.getDescription()));
+      writeMutableFields(segment, base, listing);
+    } finally {
+      this.lock.writeLock().unlock();
+    }
+  }
+
+  public CompactListing get(int itemId) {
+    this.lock.readLock().lock();
+    try {
+      int slot = findSlot(itemId);
+      return (slot < 0) ? null : readRecord(slot);
+    } finally {
+      this.lock.readLock().unlock();
+    }
+  }
+
+  public boolean contains(int itemId) {
+    this.lock.readLock().lock();
+    try {
+      return findSlot(itemId) >= 0;
+    } finally {
+      this.lock.readLock().unlock();
+    }
+  }
+
+  public CompactListing remove(int itemId) {
+    this.lock.writeLock().lock();
+    try {
+      int slot = findSlot(itemId);
+      if (slot < 0) return null;
+      CompactListing removed = readRecord(slot);
+      releaseStrings(slot);
+      recordSegment(slot).put(recordOffset(slot) + OFF_IN_USE, (byte) 0);
+      indexRemove(itemId);
+      releaseSlot(slot);
+      this.bidLogs.remove(itemId);
+      this.size--;
+      return removed;
+    } finally {
+      this.lock.writeLock().unlock();
+    }
+  }
+
+  /*
+   * Only price, best bidder and bid log change after a listing is opened.
+   * The caller holds the listing's stripe, so the record has a single writer.
+   */
+  public void update(CompactListing listing) {
+    this.lock.readLock().lock();
+    try {
+      int slot = findSlot(listing.getItemId());
+      if (slot < 0) return;
+      writeMutableFields(recordSegment(slot), recordOffset(slot), listing);
+    } finally {
+      this.lock.readLock().unlock();
+    }
+  }
+
+  public int size() {
+    this.lock.readLock().lock();
+    try {
+      return this.size;
+    } finally {
+      this.lock.readLock().unlock();
+    }
+  }
+
+  public void forEach(Consumer<CompactListing> action) {
+    this.lock.readLock().lock();
+    try {
+      for (int slot = 0; slot < this.highWaterSlot; slot++) {
+        if (recordSegment(slot).get(recordOffset(slot) + OFF_IN_USE) == 1) {
+          action.accept(readRecord(slot));
+        }
+      }
+    } finally {
+      this.lock.readLock().unlock();
+    }
+  }
+
+  public void clear() {
+    this.lock.writeLock().lock();
+    try {
+      reset();
+    } finally {
+      this.lock.writeLock().unlock();
+    }
+  }
+
+  private void writeMutableFields(ByteBuffer segment, int base, CompactListing listing) {
+    segment.putLong(base + OFF_CURRENT, listing.getCurrentCents());
+    segment.putInt(base + OFF_BIDDER, listing.getBestBidderId());
+    if (listing.getBidLog() != null) {
+      this.bidLogs.put(listing.getItemId(), listing.getBidLog());
+    } else {
+      this.bidLogs.remove(listing.getItemId());
+    }
+  }
+
+  private CompactListing readRecord(int slot) {
+    ByteBuffer segment = recordSegment(slot);
+    int base = recordOffset(slot);
+    int itemId = segment.getInt(base + OFF_ITEM_ID);
+    return CompactListing.restore(itemId,
+                                  segment.get(base + OFF_TYPE),
+                                  segment.get(base + OFF_CONDITION),
+                                  readString(segment.getLong(base + OFF_TITLE)),
+                                  readString(segment.getLong(base + OFF_DESCRIPTION)),
+                                  segment.getLong(base + OFF_STARTING),
+                                  segment.getLong(base + OFF_RESERVE),
+                                  segment.getLong(base + OFF_CURRENT),
+                                  segment.getInt(base + OFF_BIDDER),
+                                  this.bidLogs.get(itemId));
+  }
+
+  // ---- Record slots ----
+
+  private int allocateSlot() {
+    if (this.freeCount > 0) return this.freeSlots[--this.freeCount];
+    return this.highWaterSlot++;
+  }
+
+  private void releaseSlot(int slot) {
+    if (this.freeCount == this.freeSlots.length) {
+      int[] grown = new int[this.freeSlots.length * 2];
+      System.arraycopy(this.freeSlots, 0, grown, 0, this.freeCount);
+      this.freeSlots = grown;
+    }
+    this.freeSlots[this.freeCount++] = slot;
+  }
+
+  private ByteBuffer recordSegment(int slot) {
+    return mappedSegment(this.recordChannel, this.recordSegments, slot / RECORDS_PER_SEGMENT);
+  }
+
+  private static int recordOffset(int slot) { return (slot % RECORDS_PER_SEGMENT) * RECORD_SIZE; }
+
+  /*
+   * Maps (and so grows the file to) segment n on first use
+   */
+  private static MappedByteBuffer mappedSegment(FileChannel channel, ArrayList<MappedByteBuffer> segments, int n) {
+    // New segments are only mapped by writers (under the write lock)
+    try {
+      while (segments.size() <= n) {
+        segments.add(channel.map(FileChannel.MapMode.READ_WRITE, (long) segments.size() * SEGMENT_SIZE, SEGMENT_SIZE));
+      }
+    } catch (IOException e) {
+      throw new IllegalStateException("Cannot map listing store segment " + n, e);
+    }
+    return segments.get(n);
+  }
+
+  // ---- String region (appended, compacted when mostly dead) ----
+
+  private long appendString(String value) {
+    if (value == null) return NO_STRING;
+    byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+    int length = Math.min(bytes.length, SEGMENT_SIZE - Integer.BYTES);
+    // Strings never straddle two segments
+    if ((this.stringTail % SEGMENT_SIZE) + Integer.BYTES + length > SEGMENT_SIZE) {
+      this.stringTail = (this.stringTail / SEGMENT_SIZE + 1) * SEGMENT_SIZE;
+    }
+    long ref = this.stringTail;
+    ByteBuffer segment = mappedSegment(this.stringChannel, this.stringSegments, (int) (ref / SEGMENT_SIZE));
+    int offset = (int) (ref % SEGMENT_SIZE);
+    segment.putInt(offset, length);
+    segment.put(offset + Integer.BYTES, bytes, 0, length);
+    this.stringTail += Integer.BYTES + length;
+    this.liveStringBytes += Integer.BYTES + length;
+    return ref;
+  }
+
+  private int stringSize(long ref) {
+    if (ref == NO_STRING) return 0;
+    ByteBuffer segment = mappedSegment(this.stringChannel, this.stringSegments, (int) (ref / SEGMENT_SIZE));
+    return Integer.BYTES + segment.getInt((int) (ref % SEGMENT_SIZE));
+  }
+
+  /*
+   * Counts a record's strings as dead (before it is removed or rewritten)
+   */
+  private void releaseStrings(int slot) {
+    ByteBuffer segment = recordSegment(slot);
+    int base = recordOffset(slot);
+    this.liveStringBytes -= stringSize(segment.getLong(base + OFF_TITLE)) + stringSize(segment.getLong(base + OFF_DESCRIPTION));
+    segment.putLong(base + OFF_TITLE, NO_STRING);
+    segment.putLong(base + OFF_DESCRIPTION, NO_STRING);
+  }
+
+  private void maybeCompactStrings() {
+    long dead = this.stringTail - this.liveStringBytes;
+    if (dead >= COMPACT_MIN_BYTES && dead >= this.liveStringBytes) compactStrings();
+  }
+
+  /*
+   * Moves every live string down over the dead ones, in offset order, and
+   * repoints the records. A string never moves up (the new tail is always
+   * at or before its old offset), so it can be done in place. O(live
+   * strings), paid for by at least as many dead bytes. Write lock held.
+   */
+  private void compactStrings() {
+    ArrayList<long[]> refs = new ArrayList<long[]>();
+    for (int slot = 0; slot < this.highWaterSlot; slot++) {
+      ByteBuffer segment = recordSegment(slot);
+      int base = recordOffset(slot);
+      if (segment.get(base + OFF_IN_USE) != 1) continue;
+      for (int field : new int[] { OFF_TITLE, OFF_DESCRIPTION }) {
+        long ref = segment.getLong(base + field);
+        if (ref != NO_STRING) refs.add(new long[] { ref, slot, field });
+      }
+    }
+    refs.sort((a, b) -> Long.compare(a[0], b[0]));
+
+    long tail = 0;
+    long live = 0;
+    for (long[] entry : refs) {
+      ByteBuffer from = mappedSegment(this.stringChannel, this.stringSegments, (int) (entry[0] / SEGMENT_SIZE));
+      int fromOffset = (int) (entry[0] % SEGMENT_SIZE);
+      byte[] bytes = new byte[Integer.BYTES + from.getInt(fromOffset)];
+      from.get(fromOffset, bytes);
+      if ((tail % SEGMENT_SIZE) + bytes.length > SEGMENT_SIZE) {
+        tail = (tail / SEGMENT_SIZE + 1) * SEGMENT_SIZE;
+      }
+      mappedSegment(this.stringChannel, this.stringSegments, (int) (tail / SEGMENT_SIZE))
+          .put((int) (tail % SEGMENT_SIZE), bytes);
+      recordSegment((int) entry[1]).putLong(recordOffset((int) entry[1]) + (int) entry[2], tail);
+      tail += bytes.length;
+      live += bytes.length;
+    }
+    this.stringTail = tail;
+    this.liveStringBytes = live;
+  }
+
+  /*
+   * End of the used string region, for ListingStoreComparison
+   */
+  long stringRegionBytes() {
+    this.lock.readLock().lock();
+    try {
+      return this.stringTail;
+    } finally {
+      this.lock.readLock().unlock();
+    }
+  }
+
+  private String readString(long ref) {
+    if (ref == NO_STRING) return null;
+    ByteBuffer segment = mappedSegment(this.stringChannel, this.stringSegments, (int) (ref / SEGMENT_SIZE));
+    int offset = (int) (ref % SEGMENT_SIZE);
+    byte[] bytes = new byte[segment.getInt(offset)];
+    segment.get(offset + Integer.BYTES, bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  // ---- Off-heap id index ----
+
+  private static ByteBuffer newIndex(int capacity) {
+    ByteBuffer index = ByteBuffer.allocateDirect(capacity * INDEX_ENTRY_SIZE);
+    for (int i = 0; i < capacity; i++) { index.putInt(i * INDEX_ENTRY_SIZE, EMPTY); }
+    return index;
+  }
+
+  private static int bucketOf(int itemId, int capacity) {
+    int h = itemId * 0x9E3779B9;
+    return (h ^ (h >>> 16)) & (capacity - 1);
+  }
+
+  private int findSlot(int itemId) {
+    int bucket = bucketOf(itemId, this.indexCapacity);
+    while (true) {
+      int key = this.index.getInt(bucket * INDEX_ENTRY_SIZE);
+      if (key == EMPTY) return -1;
+      if (key == itemId) return this.index.getInt(bucket * INDEX_ENTRY_SIZE + Integer.BYTES);
+      bucket = (bucket + 1) & (this.indexCapacity - 1);
+    }
+  }
+
+  private void indexInsert(int itemId, int slot) {
+    if ((this.indexOccupied + 1) * 2 > this.indexCapacity) rehash();
+    int bucket = bucketOf(itemId, this.indexCapacity);
+    while (true) {
+      int key = this.index.getInt(bucket * INDEX_ENTRY_SIZE);
+      if (key == EMPTY || key == TOMBSTONE) {
+        if (key == EMPTY) this.indexOccupied++;
+        this.index.putInt(bucket * INDEX_ENTRY_SIZE, itemId);
+        this.index.putInt(bucket * INDEX_ENTRY_SIZE + Integer.BYTES, slot);
+        return;
+      }
+      bucket = (bucket + 1) & (this.indexCapacity - 1);
+    }
+  }
+
+  private void indexRemove(int itemId) {
+    int bucket = bucketOf(itemId, this.indexCapacity);
+    while (true) {
+      int key = this.index.getInt(bucket * INDEX_ENTRY_SIZE);
+      if (key == EMPTY) return;
+      if (key == itemId) {
+        this.index.putInt(bucket * INDEX_ENTRY_SIZE, TOMBSTONE);
+        return;
+      }
+      bucket = (bucket + 1) & (this.indexCapacity - 1);
+    }
+  }
+
+  /*
+   * Grows the index (or just drops tombstones if most entries are dead)
+   */
+  private void rehash() {
+    int capacity = (this.size * 2 >= this.indexCapacity / 2) ? this.indexCapacity * 2 : this.indexCapacity;
+    ByteBuffer old = this.index;
+    int oldCapacity = this.indexCapacity;
+    this.index = newIndex(capacity);
+    this.indexCapacity = capacity;
+    this.indexOccupied = 0;
+    for (int i = 0; i < oldCapacity; i++) {
+      int key = old.getInt(i * INDEX_ENTRY_SIZE);
+      if (key >= 0) indexInsert(key, old.getInt(i * INDEX_ENTRY_SIZE + Integer.BYTES));
+    }
+  }
+}
@@ -0,0 +1,101 @@
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.util.Objects;
+
+public class MatchEvent implements Serializable {
+
+  private final int sellerId;
+  private final int buyerId;
+  private final int itemId;
+  private final float price;
+  private final float bid;
+  private final int units;
+  // Units the seller's and the buyer's order still have after this fill
+  private final int sellerLeft;
+  private final int buyerLeft;
+  private final String itemTitle;
+  private final String itemType;
+
+  /**
+   * One fill in a double auction: "units" of the seller's item sold to the
+   * buyer at "price" each (the buyer bid "bid")
+   *
+   * Backends only return these; the frontend turns them into messages,
+   * for the users subscribed to it (see AuctionServerFrontend).
+   */
+  public MatchEvent(int sellerId, int buyerId, int itemId, float price, float bid,
+                    int units, int sellerLeft, int buyerLeft, String itemTitle, String itemType) {
+    this.sellerId = sellerId;
+    this.buyerId = buyerId;
+    this.itemId = itemId;
+    this.price = price;
+    this.bid = bid;
+    this.units = units;
+    this.sellerLeft = sellerLeft;
+    this.buyerLeft = buyerLeft;
+    this.itemTitle = itemTitle;
+    this.itemType = itemType;
+  }
+
+  public int getSellerId() { return this.sellerId; }
+  public int getBuyerId() { return this.buyerId; }
+  public int getItemId() { return this.itemId; }
+  public float getPrice() { return this.price; }
+  public float getBid() { return this.bid; }
+  public int getUnits() { return this.units; }
+  public int getSellerLeft() { return this.sellerLeft; }
+  public int getBuyerLeft() { return this.buyerLeft; }
+  public String getItemTitle() { return this.itemTitle; }
+  public String getItemType() { return this.itemType; }
+
+  public void writeTo(DataOutput out) throws IOException {
+    out.writeInt(this.sellerId);
+    out.writeInt(this.buyerId);
+    out.writeInt(this.itemId);
+    out.writeFloat(this.price);
+    out.writeFloat(this.bid);
+    out.writeInt(this.units);
+    out.writeInt(this.sellerLeft);
+    out.writeInt(this.buyerLeft);
+    writeString(out, this.itemTitle);
+    writeString(out, this.itemType);
+  }
+
+  public static MatchEvent readFrom(DataInput in) throws IOException {
+    return new MatchEvent(in.readInt(), in.readInt(), in.readInt(), in.readFloat(), in.readFloat(),
+                          in.readInt(), in.readInt(), in.readInt(), readString(in), readString(in));
+  }
+
+  private static void writeString(DataOutput out, String value) throws IOException {
+    byte[] bytes = (value == null) ? null : value.getBytes(StandardCharsets.UTF_8);
+    out.writeInt((bytes == null) ? -1 : bytes.length);
+    if (bytes != null) out.write(bytes);
+  }
+
+  private static String readString(DataInput in) throws IOException {
+    int length = in.readInt();
+    if (length < 0) return null;
+    byte[] bytes = new byte[length];
+    in.readFully(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  @Override
+  public boolean equals(Object obj) {
+    if (this == obj) return true;
+    if (!(obj instanceof MatchEvent)) return false;
+    MatchEvent other = (MatchEvent) obj;
+    return this.sellerId == other.sellerId && this.buyerId == other.buyerId && this.itemId == other.itemId
+        && this.price == other.price && this.bid == other.bid && this.units == other.units
+        && this.sellerLeft == other.sellerLeft && this.buyerLeft == other.buyerLeft
+        && Objects.equals(this.itemTitle, other.itemTitle) && Objects.equals(this.itemType, other.itemType);
+  }
+
+  @Override
+  public int hashCode() {
+    return Objects.hash(this.sellerId, this.buyerId, this.itemId, this.price, this.units);
+  }
+}
@@ -0,0 +1,80 @@
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+
+public class OperationHistory {
+
+  private final int capacity;
+  private final ArrayDeque<BackendOperation> operations;
+
+  // Newest dropped operation per frontend (by seq for operations
+  // without an origin)
+  private long evictedSeq;
+  private final HashMap<String, Long> evictedOrigins;
+
+  /**
+   * Bounded in-memory history of the most recent state-changing operations
+   *
+   * Lets a replica that was only briefly away catch up with the operations
+   * it missed instead of a full state transfer. Operations are kept in the
+   * order they were logged; once "capacity" is reached the oldest ones are
+   * dropped, and the history remembers the newest dropped one so it can
+   * tell when it no longer covers a replica's gap.
+   */
+  public OperationHistory(int capacity) {
+    this.capacity = Math.max(1, capacity);
+    this.operations = new ArrayDeque<BackendOperation>(this.capacity);
+    this.evictedSeq = 0;
+    this.evictedOrigins = new HashMap<String, Long>();
+  }
+
+  public synchronized void record(BackendOperation op) {
+    if (this.operations.size() == this.capacity) {
+      BackendOperation evicted = this.operations.pollFirst();
+      if (evicted.hasOrigin()) {
+        this.evictedOrigins.merge(evicted.getOriginAddress(), evicted.getOriginSeqno(), Math::max);
+      } else {
+        this.evictedSeq = Math.max(this.evictedSeq, evicted.getSeq());
+      }
+    }
+    this.operations.addLast(op);
+  }
+
+  public synchronized int size() { return this.operations.size(); }
+
+  /*
+   * Starts over from state installed wholesale (snapshot or state
+   * transfer): whatever came before it counts as dropped
+   */
+  public synchronized void resetTo(long seq, Map<String, Long> origins) {
+    this.operations.clear();
+    this.evictedSeq = seq;
+    this.evictedOrigins.clear();
+    this.evictedOrigins.putAll(origins);
+  }
+
+  /**
+   * Operations a replica is missing, given the last operation it applied
+   * (seq) and the last request it applied from each frontend (origins).
+   * Requests from frontends are matched by origin, so the answer does not
+   * depend on both replicas numbering operations alike; others by seq.
+   *
+   * @return the missing operations in log order, or null if some of them
+   *         are no longer in the history
+   */
+  public synchronized ArrayList<BackendOperation> since(long seq, Map<String, Long> origins) {
+    if (this.evictedSeq > seq) return null;
+    for (Map.Entry<String, Long> evicted : this.evictedOrigins.entrySet()) {
+      if (evicted.getValue() > origins.getOrDefault(evicted.getKey(), 0L)) return null;
+    }
+    ArrayList<BackendOperation> missing = new ArrayList<BackendOperation>();
+    for (BackendOperation op : this.operations) {
+      boolean applied = op.hasOrigin()
+          ? op.getOriginSeqno() <= origins.getOrDefault(op.getOriginAddress(), 0L)
+          : op.getSeq() <= seq;
+      if (!applied) missing.add(op);
+    }
+    return missing;
+  }
+}
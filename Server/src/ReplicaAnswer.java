@@ -0,0 +1,54 @@
+import java.io.Serializable;
+import java.security.MessageDigest;
+import java.util.Arrays;
+
+public class ReplicaAnswer implements Serializable {
+
+  private final byte[] digest;
+  private final byte[] payload;
+
+  /**
+   * A backend replica's answer to a frontend request, as a digest of the
+   * serialized result
+   *
+   * Replicas agree when their digests are equal, so the frontend compares
+   * answers without every replica shipping (and the frontend decoding)
+   * the whole result. Only one replica adds the result itself (payload);
+   * for the others it is null.
+   */
+  public ReplicaAnswer(byte[] digest, byte[] payload) {
+    this.digest = digest;
+    this.payload = payload;
+  }
+
+  /*
+   * Answer for a result serialized with serialize()
+   */
+  public static ReplicaAnswer of(byte[] serialized, boolean withPayload) throws Exception {
+    byte[] digest = MessageDigest.getInstance("SHA-256").digest(serialized);
+    return new ReplicaAnswer(digest, withPayload ? serialized : null);
+  }
+
+  public static byte[] serialize(Object result) throws Exception {
+    return CompactMarshaller.encode(result);
+  }
+
+  public byte[] getDigest() { return this.digest; }
+  public byte[] getSerializedPayload() { return this.payload; }
+  public boolean hasPayload() { return this.payload != null; }
+
+  @SuppressWarnings("unchecked")
+  public <T> T getPayload() throws Exception {
+    return (T) CompactMarshaller.decode(this.payload);
+  }
+
+  @Override
+  public boolean equals(Object obj) {
+    if (this == obj) return true;
+    if (obj == null || getClass() != obj.getClass()) return false;
+    return Arrays.equals(this.digest, ((ReplicaAnswer) obj).digest);
+  }
+
+  @Override
+  public int hashCode() { return Arrays.hashCode(this.digest); }
+}
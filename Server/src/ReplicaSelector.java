@@ -0,0 +1,78 @@
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.jgroups.Address;
+
+public class ReplicaSelector {
+
+  // Weight of the newest sample in the latency average
+  private static final double LATENCY_WEIGHT = 0.2;
+
+  private final ConcurrentHashMap<Address, Load> loads;
+  private final AtomicInteger rotation;
+
+  /**
+   * Picks the backend replica a read is sent to
+   *
+   * Prefers the replica with the fewest requests in flight from this
+   * frontend, then the one answering fastest lately (moving average).
+   * Ties are broken round-robin, so an idle group still spreads reads.
+   *
+   * One selector covers the replicas of one group (see
+   * GroupUtils.readSelector), so anything outside it has left the view.
+   */
+  public ReplicaSelector() {
+    this.loads = new ConcurrentHashMap<Address, Load>();
+    this.rotation = new AtomicInteger(0);
+  }
+
+  /*
+   * Replica to send the next read to, among the ones in the current view
+   * (null if there is none). Call done() once it answers.
+   */
+  public Address choose(List<Address> replicas) {
+    if (replicas.isEmpty()) return null;
+    // Forget replicas that left the view (only after a view change, when
+    // some of the known ones are no longer listed)
+    if (this.loads.size() > replicas.size()) this.loads.keySet().retainAll(new HashSet<Address>(replicas));
+
+    int start = Math.floorMod(this.rotation.getAndIncrement(), replicas.size());
+    Address best = null;
+    Load bestLoad = null;
+    for (int i = 0; i < replicas.size(); i++) {
+      Address replica = replicas.get((start + i) % replicas.size());
+      Load load = this.loads.computeIfAbsent(replica, r -> new Load());
+      if (bestLoad == null || load.isLighterThan(bestLoad)) {
+        best = replica;
+        bestLoad = load;
+      }
+    }
+    bestLoad.outstanding.incrementAndGet();
+    return best;
+  }
+
+  public void done(Address replica, long elapsedNanos) {
+    Load load = this.loads.get(replica);
+    if (load == null) return;
+    load.outstanding.decrementAndGet();
+    load.record(elapsedNanos);
+  }
+
+  private static class Load {
+    private final AtomicInteger outstanding = new AtomicInteger(0);
+    private volatile double latencyNanos = 0;
+
+    private synchronized void record(long elapsedNanos) {
+      this.latencyNanos = (this.latencyNanos == 0)
+          ? elapsedNanos : (1 - LATENCY_WEIGHT) * this.latencyNanos + LATENCY_WEIGHT * elapsedNanos;
+    }
+
+    private boolean isLighterThan(Load other) {
+      int outstanding = this.outstanding.get(), otherOutstanding = other.outstanding.get();
+      if (outstanding != otherOutstanding) return outstanding < otherOutstanding;
+      return this.latencyNanos < other.latencyNanos;
+    }
+  }
+}
@@ -0,0 +1,67 @@
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.Map;
+import java.util.TreeMap;
+
+public class ShardRing {
+
+  // Points per shard on the ring: more points, more even spread
+  private static final int VIRTUAL_NODES = 128;
+
+  private final int shardCount;
+  private final TreeMap<Long, Integer> ring;
+
+  /**
+   * Consistent hashing of item types onto backend shards
+   *
+   * Every shard owns VIRTUAL_NODES points on a 64-bit ring; an item type
+   * belongs to the first shard point at or after its own hash. Hashes are
+   * MD5 based, so every frontend (and every run) maps a type to the same
+   * shard, and going from n to n+1 shards only moves the types the new
+   * shard's points take over.
+   */
+  public ShardRing(int shardCount) {
+    this.shardCount = Math.max(1, shardCount);
+    this.ring = new TreeMap<Long, Integer>();
+    for (int shard = 0; shard < this.shardCount; shard++) {
+      for (int point = 0; point < VIRTUAL_NODES; point++) {
+        this.ring.put(hash("shard-" + shard + "#" + point), shard);
+      }
+    }
+  }
+
+  public int getShardCount() { return this.shardCount; }
+
+  /*
+   * Shard holding the listings and double auction of an item type
+   * (display name or key, any case)
+   */
+  public int shardFor(String itemType) {
+    if (this.shardCount == 1 || itemType == null) return 0;
+    AuctionItemTypeEnum type = AuctionItemTypeEnum.fromString(itemType);
+    Map.Entry<Long, Integer> point = this.ring.ceilingEntry(
+        hash((type == null) ? itemType.toLowerCase() : type.getKey()));
+    return (point == null) ? this.ring.firstEntry().getValue() : point.getValue();
+  }
+
+  /*
+   * Shard holding an item (listing or double auction lot), from its id
+   * alone: item ids are dealt out over the shards round-robin, each shard
+   * leasing the ids of its own residue (see leaseIdBlockBackend)
+   * @return null if there is no id
+   */
+  public Integer shardForItem(Integer itemId) {
+    return (itemId == null) ? null : Math.floorMod(itemId, this.shardCount);
+  }
+
+  private static long hash(String key) {
+    try {
+      byte[] digest = MessageDigest.getInstance("MD5").digest(key.getBytes(StandardCharsets.UTF_8));
+      long hash = 0;
+      for (int i = 0; i < 8; i++) { hash = (hash << 8) | (digest[i] & 0xff); }
+      return hash;
+    } catch (Exception e) {
+      throw new IllegalStateException("MD5 is not available", e);
+    }
+  }
+}
@@ -0,0 +1,153 @@
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+public class StateTransferSession {
+
+  private final String transferId;
+  private final long seq;
+  private final BackendSnapshot snapshot;
+  private final ArrayList<AuctionUser> users;
+  private final int chunkSize;
+  private final ArrayList<BackendOperation> tail;
+  private volatile long lastTouched;
+
+  /**
+   * Donor side of a state transfer to one joining replica
+   *
+   * Holds the copy of the donor's state taken at the cut, which the
+   * joiner pulls in chunks of at most chunkSize users or listings, plus
+   * the operations the donor applied after the cut (the tail), pulled
+   * last. The donor keeps serving requests meanwhile.
+   */
+  public StateTransferSession(String transferId, BackendSnapshot snapshot, int chunkSize) {
+    this.transferId = transferId;
+    this.seq = snapshot.getSeq();
+    this.snapshot = snapshot;
+    this.users = new ArrayList<AuctionUser>(snapshot.getUsers().values());
+    this.chunkSize = chunkSize;
+    this.tail = new ArrayList<BackendOperation>();
+    this.lastTouched = System.currentTimeMillis();
+  }
+
+  /*
+   * Delta transfer: no copy of the state, the tail starts with the
+   * operations the rejoining replica missed (see OperationHistory)
+   */
+  public StateTransferSession(String transferId, long seq, ArrayList<BackendOperation> missing, int chunkSize) {
+    this.transferId = transferId;
+    this.seq = seq;
+    this.snapshot = null;
+    this.users = new ArrayList<AuctionUser>();
+    this.chunkSize = chunkSize;
+    this.tail = new ArrayList<BackendOperation>(missing);
+    this.lastTouched = System.currentTimeMillis();
+  }
+
+  public String getTransferId() { return this.transferId; }
+  public long getLastTouched() { return this.lastTouched; }
+
+  public Header getHeader() {
+    if (this.snapshot == null) return new Header(this.transferId, this.seq, -1, null, null, null, 0);
+    return new Header(this.transferId, this.seq, this.snapshot.getNextItemId(),
+                      this.snapshot.getDoubleAuctions(), this.snapshot.getAppliedOrigins(),
+                      this.snapshot.getIdLeases(), chunkCount());
+  }
+
+  /*
+   * User chunks come first, then listing chunks
+   */
+  public int chunkCount() {
+    if (this.snapshot == null) return 0;
+    return chunksFor(this.users.size()) + chunksFor(this.snapshot.getListings().size());
+  }
+
+  public Chunk getChunk(int index) {
+    this.lastTouched = System.currentTimeMillis();
+    int userChunks = chunksFor(this.users.size());
+    Chunk chunk = new Chunk();
+    if (index < userChunks) {
+      chunk.users.addAll(slice(this.users, index));
+    } else {
+      chunk.listings.addAll(slice(this.snapshot.getListings(), index - userChunks));
+    }
+    chunk.last = (index >= chunkCount() - 1);
+    return chunk;
+  }
+
+  /*
+   * Called for every operation the donor applies after the cut,
+   * in the order it is logged
+   */
+  public synchronized void record(BackendOperation op) {
+    this.tail.add(op);
+  }
+
+  public synchronized Chunk getTail(int from) {
+    this.lastTouched = System.currentTimeMillis();
+    Chunk chunk = new Chunk();
+    int to = Math.min(this.tail.size(), from + this.chunkSize);
+    for (int i = from; i < to; i++) { chunk.operations.add(this.tail.get(i)); }
+    chunk.last = (to >= this.tail.size());
+    return chunk;
+  }
+
+  private int chunksFor(int entries) {
+    return (entries + this.chunkSize - 1) / this.chunkSize;
+  }
+
+  private <T> List<T> slice(ArrayList<T> entries, int chunk) {
+    int from = chunk * this.chunkSize;
+    return entries.subList(Math.min(from, entries.size()), Math.min(from + this.chunkSize, entries.size()));
+  }
+
+  /*
+   * Everything but the users and listings, sent when the transfer begins
+   * (only the id and seq for a delta transfer)
+   */
+  public static class Header implements Serializable {
+    private final String transferId;
+    private final long seq;
+    private final int nextItemId;
+    private final HashMap<String, DoubleAuction> doubleAuctions;
+    private final HashMap<String, Long> appliedOrigins;
+    private final HashMap<String, Long> idLeases;
+    private final int chunkCount;
+
+    public Header(String transferId, long seq, int nextItemId, HashMap<String, DoubleAuction> doubleAuctions,
+                  HashMap<String, Long> appliedOrigins, HashMap<String, Long> idLeases, int chunkCount) {
+      this.transferId = transferId;
+      this.seq = seq;
+      this.nextItemId = nextItemId;
+      this.doubleAuctions = doubleAuctions;
+      this.appliedOrigins = appliedOrigins;
+      this.idLeases = idLeases;
+      this.chunkCount = chunkCount;
+    }
+
+    public String getTransferId() { return this.transferId; }
+    public long getSeq() { return this.seq; }
+    public int getNextItemId() { return this.nextItemId; }
+    public HashMap<String, DoubleAuction> getDoubleAuctions() { return this.doubleAuctions; }
+    public HashMap<String, Long> getAppliedOrigins() { return this.appliedOrigins; }
+    public HashMap<String, Long> getIdLeases() { return this.idLeases; }
+    public int getChunkCount() { return this.chunkCount; }
+    public boolean isDelta() { return this.doubleAuctions == null; }
+  }
+
+  /*
+   * One bounded piece of state: users, listings or tail operations
+   */
+  public static class Chunk implements Serializable {
+    private final ArrayList<AuctionUser> users = new ArrayList<AuctionUser>();
+    private final ArrayList<CompactListing> listings = new ArrayList<CompactListing>();
+    private final ArrayList<BackendOperation> operations = new ArrayList<BackendOperation>();
+    private boolean last;
+
+    public ArrayList<AuctionUser> getUsers() { return this.users; }
+    public ArrayList<CompactListing> getListings() { return this.listings; }
+    public ArrayList<BackendOperation> getOperations() { return this.operations; }
+    public boolean isLast() { return this.last; }
+  }
+}
@@ -24,6 +24,8 @@ public interface API extends Remote {
   public Boolean placeBid(Integer userId, Integer auctionListingId, Float bid)
       throws RemoteException;
 
+  public List<Boolean> placeBids(List<BidRequest> bids) throws RemoteException;
+
   public Boolean isBidPriceAcceptable(Integer id, Float price)
       throws RemoteException;
 
@@ -35,6 +37,9 @@ public interface API extends Remote {
 
   public String retrieveItemsByType(String type) throws RemoteException;
 
+  public AuctionListingPage retrieveItemsByTypePage(String type, String cursor,
+      Integer pageSize) throws RemoteException;
+
   public String retrieveItemTypes() throws RemoteException;
 
   public String getAuctionedItems() throws RemoteException;
@@ -46,9 +51,18 @@ public interface API extends Remote {
       Float startPrice)
       throws RemoteException;
 
+  public void addSellerForDoubleAuction(Integer userId, String itemName,
+      String itemType, String itemDesc,
+      Integer itemCond, Float resPrice,
+      Float startPrice, Integer quantity)
+      throws RemoteException;
+
   public void addBuyerForDoubleAuction(Integer userId, String itemType,
       Float bid) throws RemoteException;
 
+  public void addBuyerForDoubleAuction(Integer userId, String itemType,
+      Float bid, Integer quantity) throws RemoteException;
+
   public List<byte[]> verifyClientSignature(byte[] encryptedAES, byte[] encryptedSignature,
       String originalMessage, Integer userId,
       String originalSignatureHashDigest)
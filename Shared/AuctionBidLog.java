@@ -0,0 +1,135 @@
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.ArrayDeque;
+
+public class AuctionBidLog implements Serializable {
+
+  public static final int CHUNK_SIZE = 32;
+  public static final int MAX_RETAINED_CHUNKS = 32;
+
+  private ArrayDeque<BidChunk> chunks;
+  private long droppedBids;
+
+  /**
+   * Append-only log of the bids placed on a listing
+   *
+   * Bids are stored as typed records in fixed-size chunks, so appending
+   * never copies earlier entries. Only the most recent
+   * MAX_RETAINED_CHUNKS chunks are kept; older ones are dropped and counted.
+   * Text is only produced when render() is called.
+   */
+  public AuctionBidLog() {
+    this.chunks = new ArrayDeque<BidChunk>();
+    this.droppedBids = 0;
+  }
+
+  public void append(String bidder, Float bid, Boolean accepted) {
+    BidChunk tail = this.chunks.peekLast();
+    if (tail == null || tail.isFull()) {
+      if (this.chunks.size() == MAX_RETAINED_CHUNKS) {
+        this.droppedBids += this.chunks.pollFirst().size;
+      }
+      tail = new BidChunk();
+      this.chunks.addLast(tail);
+    }
+    tail.add(bidder, bid, accepted);
+  }
+
+  /*
+   * Independent copy of the log (chunks are copied, not shared)
+   */
+  public AuctionBidLog copy() {
+    AuctionBidLog copy = new AuctionBidLog();
+    copy.droppedBids = this.droppedBids;
+    for (BidChunk chunk : this.chunks) {
+      BidChunk chunkCopy = new BidChunk();
+      for (int i = 0; i < chunk.size; i++) {
+        chunkCopy.add(chunk.bidders[i], chunk.bids[i], chunk.accepted[i]);
+      }
+      copy.chunks.addLast(chunkCopy);
+    }
+    return copy;
+  }
+
+  /*
+   * Number of bids currently held in memory
+   */
+  public int retainedBids() {
+    int retained = 0;
+    for (BidChunk chunk : this.chunks) { retained += chunk.size; }
+    return retained;
+  }
+
+  public long totalBids() { return this.droppedBids + retainedBids(); }
+
+  /*
+   * Compact binary form (see CompactMarshaller): the dropped count, then
+   * the retained bids in order. Reading appends them again, which gives
+   * back the same chunks.
+   */
+  public void writeTo(DataOutput out) throws IOException {
+    out.writeLong(this.droppedBids);
+    out.writeInt(retainedBids());
+    for (BidChunk chunk : this.chunks) {
+      for (int i = 0; i < chunk.size; i++) {
+        out.writeBoolean(chunk.bidders[i] != null);
+        if (chunk.bidders[i] != null) out.writeUTF(chunk.bidders[i]);
+        out.writeFloat(chunk.bids[i]);
+        out.writeBoolean(chunk.accepted[i]);
+      }
+    }
+  }
+
+  public static AuctionBidLog readFrom(DataInput in) throws IOException {
+    AuctionBidLog log = new AuctionBidLog();
+    log.droppedBids = in.readLong();
+    int retained = in.readInt();
+    for (int i = 0; i < retained; i++) {
+      String bidder = in.readBoolean() ? in.readUTF() : null;
+      log.append(bidder, in.readFloat(), in.readBoolean());
+    }
+    return log;
+  }
+
+  /*
+   * Renders the retained bids in the auction log text format
+   */
+  public String render() {
+    StringBuilder logs = new StringBuilder("--- AUCTION LOGS ---\n");
+    if (this.droppedBids > 0) {
+      logs.append("[AUCTION LOG] ").append(this.droppedBids)
+          .append(" earlier bids not retained.\n");
+    }
+    for (BidChunk chunk : this.chunks) {
+      for (int i = 0; i < chunk.size; i++) {
+        logs.append("[AUCTION LOG] User ").append(chunk.bidders[i])
+            .append(" requested to place a bid of ").append(chunk.bids[i]).append(" EUR.\n")
+            .append("[AUCTION LOG] User ").append(chunk.bidders[i])
+            .append(chunk.accepted[i] ? " bid accepted: " : " bid NOT accepted: ")
+            .append(chunk.bids[i]).append(" EUR.\n");
+      }
+    }
+    return logs.toString();
+  }
+
+  /*
+   * Fixed-size block of bid records (parallel primitive arrays)
+   */
+  private static class BidChunk implements Serializable {
+    private final String[] bidders = new String[CHUNK_SIZE];
+    private final float[] bids = new float[CHUNK_SIZE];
+    private final boolean[] accepted = new boolean[CHUNK_SIZE];
+    private int size = 0;
+
+    private boolean isFull() { return this.size == CHUNK_SIZE; }
+
+    private void add(String bidder, float bid, boolean wasAccepted) {
+      this.bidders[this.size] = bidder;
+      this.bids[this.size] = bid;
+      this.accepted[this.size] = wasAccepted;
+      this.size++;
+    }
+  }
+}
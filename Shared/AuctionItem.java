@@ -40,27 +40,42 @@ public class AuctionItem implements Serializable {
   }
 
   public void setItemCondition(Integer conditionScale) {
-    switch (conditionScale) {
+    if (conditionScale == null || conditionScale < 1 || conditionScale > 5) {
+      System.out.println("Chosen scale indicator not in the scale bounds." +
+        " Defaulting to \"Used.\"");
+    }
+    this.itemCondition = conditionDescription(conditionScale);
+  }
+
+  /*
+   * Text for a 1-5 usage scale value ("Used." when out of bounds)
+   */
+  public static String conditionDescription(Integer conditionScale) {
+    switch (conditionScale == null ? 0 : conditionScale) {
       case 5:
-        this.itemCondition = "Heavily used.";
-        break;
+        return "Heavily used.";
       case 4:
-        this.itemCondition = "Moderately used.";
-        break;
+        return "Moderately used.";
       case 3:
-        this.itemCondition = "Used.";
-        break;
+        return "Used.";
       case 2:
-        this.itemCondition = "Barely used.";
-        break;
+        return "Barely used.";
       case 1:
-        this.itemCondition = "New.";
-        break;
+        return "New.";
       default:
-        System.out.println("Chosen scale indicator not in the scale bounds." +
-          " Defaulting to \"Used.\"");
-        this.itemCondition = "Used.";
+        return "Used.";
+    }
+  }
+
+  /*
+   * Scale value a condition text was made from (inverse of
+   * conditionDescription(), "Used." maps back to 3)
+   */
+  public static Integer conditionScale(String conditionDescription) {
+    for (int scale = 1; scale <= 5; scale++) {
+      if (conditionDescription(scale).equals(conditionDescription)) return scale;
     }
+    return 3;
   }
 
   public String getItemCondition() {
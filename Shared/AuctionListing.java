@@ -8,7 +8,7 @@ public class AuctionListing implements Serializable {
   private Float currentPrice;
   private String bestBidUser;
   private Boolean auctionOpen;
-  private String auctionLogs;
+  private AuctionBidLog bidLog;
 
   /**
    * Auction listing for forward, reverse and double auction
@@ -23,13 +23,15 @@ public class AuctionListing implements Serializable {
     this.startingPrice = startingPrice;
     this.currentPrice = 0.0f;
     this.bestBidUser = null;
-    this.auctionLogs = "--- AUCTION LOGS ---\n";
+    this.bidLog = new AuctionBidLog();
     this.auctionOpen = true; // unused for the moment
   }
 
-  public AuctionListing() {}
-  public String getAuctionLogs() { return this.auctionLogs; }
-  public void appendAuctionLog(String newLog) { this.auctionLogs += newLog; }
+  public AuctionListing() { this.bidLog = new AuctionBidLog(); }
+  public String getAuctionLogs() { return this.bidLog.render(); }
+  public AuctionBidLog getBidLog() { return this.bidLog; }
+  public void setBidLog(AuctionBidLog bidLog) { this.bidLog = bidLog; }
+  public void logBid(String bidder, Float bid, Boolean accepted) { this.bidLog.append(bidder, bid, accepted); }
   public Boolean isAcutionOpen() { return this.auctionOpen; }
   public void changeAuctionStatus(Boolean newStat) { this.auctionOpen = newStat; }
   public String getBestBidUser() { return bestBidUser; }
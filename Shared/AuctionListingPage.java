@@ -0,0 +1,76 @@
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+
+public class AuctionListingPage implements Serializable {
+
+  private ArrayList<Entry> entries;
+  private String nextCursor;
+
+  /**
+   * One page of a category listing, ordered by price and then by id
+   *
+   * nextCursor is an opaque continuation token to pass back for the
+   * following page, null when this is the last page.
+   */
+  public AuctionListingPage(ArrayList<Entry> entries, String nextCursor) {
+    this.entries = entries;
+    this.nextCursor = nextCursor;
+  }
+
+  public AuctionListingPage() {}
+
+  public List<Entry> getEntries() { return this.entries; }
+  public String getNextCursor() { return this.nextCursor; }
+  public Boolean hasNextPage() { return this.nextCursor != null; }
+
+  @Override
+  public boolean equals(Object obj) {
+    if (this == obj) return true;
+    if (obj == null || getClass() != obj.getClass()) return false;
+    AuctionListingPage other = (AuctionListingPage) obj;
+    return Objects.equals(entries, other.entries) && Objects.equals(nextCursor, other.nextCursor);
+  }
+
+  @Override
+  public int hashCode() {
+    return Objects.hash(entries, nextCursor);
+  }
+
+  /*
+   * Summary of a listing as shown when browsing a category
+   */
+  public static class Entry implements Serializable {
+    private Integer itemId;
+    private String itemTitle;
+    private String itemCondition;
+    private Float price;
+
+    public Entry(Integer itemId, String itemTitle, String itemCondition, Float price) {
+      this.itemId = itemId;
+      this.itemTitle = itemTitle;
+      this.itemCondition = itemCondition;
+      this.price = price;
+    }
+
+    public Integer getItemId() { return this.itemId; }
+    public String getItemTitle() { return this.itemTitle; }
+    public String getItemCondition() { return this.itemCondition; }
+    public Float getPrice() { return this.price; }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (this == obj) return true;
+      if (obj == null || getClass() != obj.getClass()) return false;
+      Entry other = (Entry) obj;
+      return Objects.equals(itemId, other.itemId) && Objects.equals(itemTitle, other.itemTitle)
+          && Objects.equals(itemCondition, other.itemCondition) && Objects.equals(price, other.price);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(itemId, itemTitle, itemCondition, price);
+    }
+  }
+}
@@ -0,0 +1,21 @@
+import java.io.Serializable;
+
+public class BidRequest implements Serializable {
+
+  private int userId;
+  private int listingId;
+  private float bid;
+
+  /*
+   * One bid in a batch (see API.placeBids)
+   */
+  public BidRequest(Integer userId, Integer listingId, Float bid) {
+    this.userId = userId;
+    this.listingId = listingId;
+    this.bid = bid;
+  }
+
+  public Integer getUserId() { return userId; }
+  public Integer getListingId() { return listingId; }
+  public Float getBid() { return bid; }
+}
@@ -0,0 +1,18 @@
+#!/bin/bash
+
+# Usage: ./bench.sh <BenchmarkClass> [args...]   (run ./compile.sh first)
+absPath=$(pwd)
+jGroupsPath="${absPath}/JGroups/jgroups-3.6.20.jar"
+benchClass=${1:-ListingFootprintBenchmark}
+shift
+
+(
+  cd "${absPath}/Server/bench"
+  javac -d "${absPath}/Server/target" -cp "${jGroupsPath}:${absPath}/Server/target" *.java
+  echo "[COMPILATION SUCCESS] Benchmarks compiled!"
+)
+
+(
+  cd "${absPath}/Server/target"
+  java -cp "${jGroupsPath}:." -Djava.net.preferIPv4Stack=true -Djgroups.bind_addr=127.0.0.1 ${benchClass} "$@"
+)